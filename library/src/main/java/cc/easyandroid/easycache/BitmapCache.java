@@ -0,0 +1,304 @@
+package cc.easyandroid.easycache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import cc.easyandroid.easycache.dislrucache.DiskLruCache;
+
+/**
+ * 图片缓存，不像{@link EasyCacheUtils#put(String, Bitmap)}那样重新压缩成PNG：
+ * 下载的图片用{@link #putEncoded}保存原始的字节，已经解码的用{@link #putRaw}直接保存像素。
+ * 读取时可以按需要的大小用inSampleSize缩小解码，解码后的Bitmap放在按{@link Bitmap#getByteCount()}计算大小的内存LRU中。
+ * <p>
+ * 内存中的Bitmap在所有调用者之间共享，不要修改或recycle
+ */
+public class BitmapCache {
+    /**
+     * 像素数据的文件头，图片格式(JPEG、PNG、WebP、GIF)的文件不会以它开头
+     */
+    private static final int RAW_MAGIC = 0x52415742;// "RAWB"
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final EasyCacheUtils diskCache;
+    private final LruCache<String, Bitmap> memoryCache;
+
+    /**
+     * @param diskCache        保存数据的磁盘缓存
+     * @param memoryCacheBytes 内存中解码后的Bitmap最多占用多少字节，0表示不使用
+     */
+    public BitmapCache(EasyCacheUtils diskCache, int memoryCacheBytes) {
+        this.diskCache = diskCache;
+        this.memoryCache = memoryCacheBytes > 0 ? new LruCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        } : null;
+    }
+
+    /**
+     * 保存原始的图片数据，比如网络下载的jpg，不需要解码再压缩
+     */
+    public void putEncoded(String key, byte[] encoded) {
+        evictMemory(key);
+        diskCache.put(key, encoded);
+    }
+
+    /**
+     * 边读边保存原始的图片数据
+     */
+    public void putEncoded(String key, InputStream encoded) {
+        evictMemory(key);
+        diskCache.put(key, encoded);
+    }
+
+    /**
+     * 直接保存像素，读取时不需要解码，文件比压缩的图片大，适合缩略图等小图
+     */
+    public void putRaw(String key, Bitmap bitmap) {
+        evictMemory(key);
+        Bitmap copy = null;
+        if (bitmap.getConfig() == null) {// 不知道像素格式，转成ARGB_8888
+            copy = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+            if (copy == null)
+                return;
+            bitmap = copy;
+        }
+        DiskLruCache.Editor editor = diskCache.editor(key);
+        if (editor == null) {
+            if (copy != null)
+                copy.recycle();
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(editor.newOutputStream(0), BUFFER_SIZE));
+            ByteBuffer pixels = ByteBuffer.allocate(bitmap.getRowBytes() * bitmap.getHeight());
+            bitmap.copyPixelsToBuffer(pixels);
+            out.writeInt(RAW_MAGIC);
+            out.writeInt(bitmap.getWidth());
+            out.writeInt(bitmap.getHeight());
+            out.writeInt(bitmap.getRowBytes());
+            out.writeUTF(bitmap.getConfig().name());
+            out.write(pixels.array(), 0, pixels.position());
+            out.flush();
+            editor.commit();
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                editor.abort();
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+        } finally {
+            closeQuietly(out);
+            if (copy != null) {// 转换出的副本只用来写入
+                copy.recycle();
+            }
+        }
+    }
+
+    /**
+     * 原尺寸读取
+     */
+    public Bitmap get(String key) {
+        return get(key, 0, 0);
+    }
+
+    /**
+     * 读取并缩小到不小于需要的大小，缩小的倍数是2的幂，宽高可以只限制一个
+     *
+     * @param reqWidth  需要的宽度，0表示不限制
+     * @param reqHeight 需要的高度，0表示不限制
+     * @return 没有缓存或解码失败时返回null
+     */
+    public Bitmap get(String key, int reqWidth, int reqHeight) {
+        String memoryKey = key + '|' + reqWidth + 'x' + reqHeight;
+        if (memoryCache != null) {
+            Bitmap bitmap = memoryCache.get(memoryKey);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        Bitmap bitmap = null;
+        try {
+            bitmap = decode(key, reqWidth, reqHeight);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        }
+        if (bitmap != null && memoryCache != null) {
+            memoryCache.put(memoryKey, bitmap);
+        }
+        return bitmap;
+    }
+
+    public void remove(String key) {
+        evictMemory(key);
+        diskCache.remove(key);
+    }
+
+    /**
+     * 清空内存中的Bitmap，比如在onTrimMemory中调用
+     */
+    public void evictMemory() {
+        if (memoryCache != null) {
+            memoryCache.evictAll();
+        }
+    }
+
+    private void evictMemory(String key) {
+        if (memoryCache == null) {
+            return;
+        }
+        String prefix = key + '|';
+        for (String memoryKey : memoryCache.snapshot().keySet()) {
+            if (memoryKey.startsWith(prefix)) {
+                memoryCache.remove(memoryKey);
+            }
+        }
+    }
+
+    private Bitmap decode(String key, int reqWidth, int reqHeight) throws IOException {
+        InputStream in = open(key);
+        if (in == null) {
+            return null;
+        }
+        try {
+            in.mark(4);
+            if (new DataInputStream(in).readInt() == RAW_MAGIC) {
+                return readRaw(new DataInputStream(in), reqWidth, reqHeight);
+            }
+            in.reset();
+            if (reqWidth <= 0 && reqHeight <= 0) {
+                return BitmapFactory.decodeStream(in);
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(in, null, options);
+            closeQuietly(in);
+            // 读取尺寸时已经读过的数据不一定能reset，重新打开一次
+            in = open(key);
+            if (in == null) {
+                return null;
+            }
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+            options.inJustDecodeBounds = false;
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private InputStream open(String key) {
+        InputStream in = diskCache.get(key);
+        return in != null ? new BufferedInputStream(in, BUFFER_SIZE) : null;
+    }
+
+    /**
+     * 缩小时只读取需要的行和列，不需要先生成原尺寸的Bitmap。
+     * 保存时的行长度和新Bitmap的行长度不一定相同(行尾可能有对齐的填充)，所以按行复制
+     */
+    private static Bitmap readRaw(DataInputStream in, int reqWidth, int reqHeight) throws IOException {
+        int width = in.readInt();
+        int height = in.readInt();
+        int rowBytes = in.readInt();
+        Bitmap.Config config;
+        try {
+            config = Bitmap.Config.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("unknown config");
+        }
+        int bytesPerPixel = bytesPerPixel(config);
+        if (width <= 0 || height <= 0 || rowBytes < width * bytesPerPixel) {
+            throw new IOException("bad raw header");
+        }
+        int sampleSize = calculateInSampleSize(width, height, reqWidth, reqHeight);
+        int outWidth = Math.max(1, width / sampleSize);
+        int outHeight = Math.max(1, height / sampleSize);
+        Bitmap bitmap = Bitmap.createBitmap(outWidth, outHeight, config);
+        int outRowBytes = bitmap.getRowBytes();
+        byte[] row = new byte[rowBytes];
+        byte[] pixels = new byte[outRowBytes * outHeight];
+        for (int y = 0; y < outHeight; y++) {
+            in.readFully(row);
+            int offset = y * outRowBytes;
+            if (sampleSize == 1) {
+                System.arraycopy(row, 0, pixels, offset, width * bytesPerPixel);
+            } else {
+                for (int x = 0; x < outWidth; x++) {
+                    System.arraycopy(row, x * sampleSize * bytesPerPixel, pixels, offset, bytesPerPixel);
+                    offset += bytesPerPixel;
+                }
+                if (y < outHeight - 1) {
+                    skipFully(in, (long) rowBytes * (sampleSize - 1));
+                }
+            }
+        }
+        bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+        return bitmap;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) throws IOException {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+                return 4;
+            default:
+                throw new IOException("unsupported config: " + config);
+        }
+    }
+
+    /**
+     * 计算不小于需要的大小时最大的2的幂的缩小倍数
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 && reqHeight <= 0) {
+            return sampleSize;
+        }
+        while ((reqWidth <= 0 || width / (sampleSize * 2) >= reqWidth)
+                && (reqHeight <= 0 || height / (sampleSize * 2) >= reqHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new IOException("unexpected end of stream");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
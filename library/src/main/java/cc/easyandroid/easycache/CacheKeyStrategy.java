@@ -0,0 +1,13 @@
+package cc.easyandroid.easycache;
+
+import okhttp3.Request;
+
+/**
+ * 生成请求的缓存key，key相同的请求共用一份缓存
+ */
+public interface CacheKeyStrategy {
+    /**
+     * @return 不能缓存的请求返回null
+     */
+    String keyFor(Request request);
+}
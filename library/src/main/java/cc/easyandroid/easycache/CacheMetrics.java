@@ -0,0 +1,54 @@
+package cc.easyandroid.easycache;
+
+/**
+ * 缓存的统计，用于上报命中率、过期、淘汰、读写量和耗时，根据数据调整缓存时长和大小。
+ * 回调在读写缓存的线程上同步调用，实现需要线程安全并且尽量快，不要在回调中读写缓存。
+ * 只需要部分回调时继承{@link SimpleCacheMetrics}，{@link CountingCacheMetrics}是一个计数的实现
+ */
+public interface CacheMetrics {
+    /**
+     * {@link EasyHttpCache}，按请求统计
+     */
+    String HTTP = "http";
+    /**
+     * {@link cc.easyandroid.easycache.volleycache.MemoryTierCache}
+     */
+    String MEMORY = "memory";
+    /**
+     * {@link cc.easyandroid.easycache.volleycache.DiskBasedCache}
+     */
+    String DISK = "disk";
+    /**
+     * {@link EasyCacheUtils}使用的{@link cc.easyandroid.easycache.dislrucache.DiskLruCache}
+     */
+    String DISK_LRU = "disklru";
+
+    /**
+     * 不统计，默认值
+     */
+    CacheMetrics NONE = new SimpleCacheMetrics();
+
+    void onHit(String cache);
+
+    void onMiss(String cache);
+
+    /**
+     * 找到了缓存但已经过期
+     *
+     * @param hard true 已经过期不能使用，false 还能使用但需要刷新
+     */
+    void onExpired(String cache, boolean hard);
+
+    /**
+     * 超过大小限制淘汰了缓存
+     */
+    void onEvicted(String cache, int entries, long bytes);
+
+    void onRead(String cache, long bytes);
+
+    void onWritten(String cache, long bytes);
+
+    void onGetLatency(String cache, long nanos);
+
+    void onPutLatency(String cache, long nanos);
+}
@@ -0,0 +1,47 @@
+package cc.easyandroid.easycache;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * 缓存的响应体，直接从缓存的数据流式读取，不像 {@link ResponseBody#create(MediaType, byte[])} 那样先整体复制一份
+ */
+final class CacheResponseBody extends ResponseBody {
+    private final MediaType contentType;
+    private final long contentLength;
+    private final InputStream inputStream;
+    private BufferedSource source;
+
+    CacheResponseBody(MediaType contentType, byte[] data) {
+        this(contentType, data.length, new ByteArrayInputStream(data));
+    }
+
+    CacheResponseBody(MediaType contentType, long contentLength, InputStream inputStream) {
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.inputStream = inputStream;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public BufferedSource source() {
+        if (source == null) {
+            source = Okio.buffer(Okio.source(inputStream));
+        }
+        return source;
+    }
+}
@@ -0,0 +1,311 @@
+package cc.easyandroid.easycache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cc.easyandroid.easycore.EasyExecutor;
+import cc.easyandroid.easylog.EALog;
+
+/**
+ * 缓存key和标签的对应关系，按标签批量删除缓存时只需要找到这个标签下的key，不需要遍历整个缓存。
+ * 标签有两种来源：写入时的请求头，每次写入时替换；{@link #add(String, String...)}增加的，重新写入时保留，
+ * 直到缓存被删除。改变后在后台写入文件，初始化时读取；进程在写入前退出时最近的标签会丢失
+ */
+final class CacheTagIndex {
+    private static final int MAGIC = 0x45435447;// "ECTG"
+    /**
+     * 每个标签保存一个是否由{@link #add(String, String...)}增加的标记；其他版本的文件不读取，标签在缓存重新写入时恢复
+     */
+    private static final int VERSION = 2;
+
+    private final File file;
+    /**
+     * guarded by this
+     */
+    private final Map<String, Set<String>> keysByTag = new HashMap<>();
+    private final Map<String, Set<String>> tagsByKey = new HashMap<>();
+    /**
+     * {@link #add(String, String...)}增加的标签，是tagsByKey的子集
+     */
+    private final Map<String, Set<String>> addedTagsByKey = new HashMap<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    CacheTagIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 读取保存的标签，跳过已经不在缓存中的key。
+     * 判断key时不持有锁，缓存删除key时会回调{@link #remove(String)}，持有锁查询缓存可能死锁
+     */
+    void load(Filter filter) {
+        if (!file.exists()) {
+            return;
+        }
+        Map<String, List<String>> headerTags = new HashMap<>();
+        Map<String, List<String>> addedTags = new HashMap<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("unknown tag index format");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unknown tag index version: " + version);
+            }
+            int keyCount = in.readInt();
+            if (keyCount < 0) {
+                throw new IOException("bad key count: " + keyCount);
+            }
+            for (int i = 0; i < keyCount; i++) {
+                String key = in.readUTF();
+                int tagCount = in.readInt();
+                if (tagCount < 0) {
+                    throw new IOException("bad tag count: " + tagCount);
+                }
+                // 数量是从文件读出的，不按它分配，文件损坏时读到结尾就会失败
+                List<String> keyHeaderTags = new ArrayList<>();
+                List<String> keyAddedTags = new ArrayList<>();
+                for (int j = 0; j < tagCount; j++) {
+                    String tag = in.readUTF();
+                    boolean added = in.readBoolean();
+                    (added ? keyAddedTags : keyHeaderTags).add(tag);
+                }
+                if (filter.contains(key)) {
+                    headerTags.put(key, keyHeaderTags);
+                    addedTags.put(key, keyAddedTags);
+                }
+            }
+        } catch (IOException e) {
+            EALog.e(e, "easycache read tag index failed");
+            return;
+        } finally {
+            closeQuietly(in);
+        }
+        synchronized (this) {
+            for (Map.Entry<String, List<String>> entry : headerTags.entrySet()) {
+                index(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, List<String>> entry : addedTags.entrySet()) {
+                addTags(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 写入缓存时调用，替换这个key原来请求头的标签，{@link #add(String, String...)}增加的标签保留
+     *
+     * @param tags 没有标签时为空
+     */
+    void put(String key, Collection<String> tags) {
+        synchronized (this) {
+            if (!tagsByKey.containsKey(key) && tags.isEmpty()) {
+                return;
+            }
+            unindex(key);
+            index(key, tags);
+            Set<String> addedTags = addedTagsByKey.get(key);
+            if (addedTags != null) {
+                index(key, addedTags);
+            }
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * 给key增加标签，原来的标签保留，之后重新写入时也保留
+     */
+    void add(String key, String... tags) {
+        synchronized (this) {
+            addTags(key, Arrays.asList(tags));
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * 去掉一个标签
+     *
+     * @return 这个标签下的所有key，这些key的其他标签也一起去掉
+     */
+    Set<String> removeTag(String tag) {
+        Set<String> keys;
+        synchronized (this) {
+            keys = keysByTag.remove(tag);
+            if (keys == null) {
+                return Collections.emptySet();
+            }
+            for (String key : keys) {
+                removeKey(key);
+            }
+        }
+        scheduleWrite();
+        return keys;
+    }
+
+    void remove(String key) {
+        synchronized (this) {
+            if (!tagsByKey.containsKey(key)) {
+                return;
+            }
+            removeKey(key);
+        }
+        scheduleWrite();
+    }
+
+    void clear() {
+        synchronized (this) {
+            keysByTag.clear();
+            tagsByKey.clear();
+            addedTagsByKey.clear();
+        }
+        scheduleWrite();
+    }
+
+    private void addTags(String key, Collection<String> tags) {
+        if (tags.isEmpty()) {
+            return;
+        }
+        index(key, tags);
+        Set<String> addedTags = addedTagsByKey.get(key);
+        if (addedTags == null) {
+            addedTags = new LinkedHashSet<>();
+            addedTagsByKey.put(key, addedTags);
+        }
+        addedTags.addAll(tags);
+    }
+
+    private void index(String key, Collection<String> tags) {
+        if (tags.isEmpty()) {
+            return;
+        }
+        Set<String> keyTags = tagsByKey.get(key);
+        if (keyTags == null) {
+            keyTags = new LinkedHashSet<>();
+            tagsByKey.put(key, keyTags);
+        }
+        for (String tag : tags) {
+            keyTags.add(tag);
+            Set<String> keys = keysByTag.get(tag);
+            if (keys == null) {
+                keys = new HashSet<>();
+                keysByTag.put(tag, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    private void removeKey(String key) {
+        unindex(key);
+        addedTagsByKey.remove(key);
+    }
+
+    private void unindex(String key) {
+        Set<String> tags = tagsByKey.remove(key);
+        if (tags == null) {
+            return;
+        }
+        for (String tag : tags) {
+            Set<String> keys = keysByTag.get(tag);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                keysByTag.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * 连续的改变只写一次文件
+     */
+    private void scheduleWrite() {
+        if (!writeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        EasyExecutor.getThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                writeScheduled.set(false);
+                write();
+            }
+        });
+    }
+
+    /**
+     * 在调用的线程中写入文件，平时由{@link #scheduleWrite()}在后台调用
+     */
+    void write() {
+        // 同一时间只有一个线程写文件，在锁内取快照保证旧的快照不会覆盖新的
+        synchronized (file) {
+            Map<String, Set<String>> snapshot = new HashMap<>();
+            Map<String, Set<String>> addedSnapshot = new HashMap<>();
+            synchronized (this) {
+                for (Map.Entry<String, Set<String>> entry : tagsByKey.entrySet()) {
+                    snapshot.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+                }
+                for (Map.Entry<String, Set<String>> entry : addedTagsByKey.entrySet()) {
+                    addedSnapshot.put(entry.getKey(), new HashSet<>(entry.getValue()));
+                }
+            }
+            File tempFile = new File(file.getPath() + ".tmp");
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Set<String>> entry : snapshot.entrySet()) {
+                    Set<String> addedTags = addedSnapshot.get(entry.getKey());
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (String tag : entry.getValue()) {
+                        out.writeUTF(tag);
+                        out.writeBoolean(addedTags != null && addedTags.contains(tag));
+                    }
+                }
+                out.close();
+                out = null;
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("failed to rename " + tempFile);
+                }
+            } catch (IOException e) {
+                EALog.e(e, "easycache write tag index failed");
+                tempFile.delete();
+            } finally {
+                closeQuietly(out);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 读取时判断key是否还在缓存中
+     */
+    interface Filter {
+        boolean contains(String key);
+    }
+}
@@ -11,20 +11,27 @@ import android.os.Environment;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+
+import cc.easyandroid.easycache.volleycache.KeyHasher;
+import cc.easyandroid.easycache.volleycache.Md5KeyHasher;
+import cc.easyandroid.easycache.volleycache.Murmur3KeyHasher;
 
 public class CacheUtils {
+	/**
+	 * 默认使用原来的MD5，DiskLruCache没有迁移旧文件名，换算法后已有的缓存都不会再命中
+	 */
+	private static volatile KeyHasher sKeyHasher = new Md5KeyHasher();
+
+	/**
+	 * 设置缓存key转换成文件名的算法，默认是{@link Md5KeyHasher}；新的缓存目录可以用更快的{@link Murmur3KeyHasher}，
+	 * 更换后之前保存的缓存不会再命中，需要在第一次读写缓存之前设置
+	 */
+	public static void setKeyHasher(KeyHasher keyHasher) {
+		sKeyHasher = keyHasher;
+	}
+
 	public static String hashKeyForDisk(String key) {
-		String cacheKey;
-		try {
-			final MessageDigest mDigest = MessageDigest.getInstance("MD5");
-			mDigest.update(key.getBytes());
-			cacheKey = bytesToHexString(mDigest.digest());
-		} catch (NoSuchAlgorithmException e) {
-			cacheKey = String.valueOf(key.hashCode());
-		}
-		return cacheKey;
+		return sKeyHasher.hash(key);
 	}
 
 	public static String bytesToHexString(byte[] bytes) {
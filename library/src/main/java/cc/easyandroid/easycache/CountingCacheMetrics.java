@@ -0,0 +1,194 @@
+package cc.easyandroid.easycache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按缓存分别计数，耗时记录在按2的幂划分的直方图中，可以定时读取{@link #getStats(String)}上报
+ */
+public class CountingCacheMetrics implements CacheMetrics {
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param cache 比如{@link #HTTP}、{@link #DISK}
+     */
+    public Stats getStats(String cache) {
+        Stats s = stats.get(cache);
+        if (s == null) {
+            Stats created = new Stats();
+            s = stats.putIfAbsent(cache, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * 所有有数据的缓存
+     */
+    public Map<String, Stats> getAllStats() {
+        return stats;
+    }
+
+    @Override
+    public void onHit(String cache) {
+        getStats(cache).hits.incrementAndGet();
+    }
+
+    @Override
+    public void onMiss(String cache) {
+        getStats(cache).misses.incrementAndGet();
+    }
+
+    @Override
+    public void onExpired(String cache, boolean hard) {
+        (hard ? getStats(cache).hardExpirations : getStats(cache).softExpirations).incrementAndGet();
+    }
+
+    @Override
+    public void onEvicted(String cache, int entries, long bytes) {
+        Stats s = getStats(cache);
+        s.evictions.addAndGet(entries);
+        s.evictedBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void onRead(String cache, long bytes) {
+        getStats(cache).bytesRead.addAndGet(bytes);
+    }
+
+    @Override
+    public void onWritten(String cache, long bytes) {
+        getStats(cache).bytesWritten.addAndGet(bytes);
+    }
+
+    @Override
+    public void onGetLatency(String cache, long nanos) {
+        getStats(cache).getLatency.record(nanos);
+    }
+
+    @Override
+    public void onPutLatency(String cache, long nanos) {
+        getStats(cache).putLatency.record(nanos);
+    }
+
+    public static final class Stats {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong softExpirations = new AtomicLong();
+        private final AtomicLong hardExpirations = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong evictedBytes = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final Histogram getLatency = new Histogram();
+        private final Histogram putLatency = new Histogram();
+
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        public long getMissCount() {
+            return misses.get();
+        }
+
+        /**
+         * @return 没有请求时返回0
+         */
+        public double getHitRate() {
+            long hit = hits.get();
+            long total = hit + misses.get();
+            return total == 0 ? 0 : (double) hit / total;
+        }
+
+        public long getSoftExpirationCount() {
+            return softExpirations.get();
+        }
+
+        public long getHardExpirationCount() {
+            return hardExpirations.get();
+        }
+
+        public long getEvictionCount() {
+            return evictions.get();
+        }
+
+        public long getEvictedBytes() {
+            return evictedBytes.get();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.get();
+        }
+
+        public Histogram getGetLatency() {
+            return getLatency;
+        }
+
+        public Histogram getPutLatency() {
+            return putLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " softExpired=" + softExpirations + " hardExpired=" + hardExpirations
+                    + " evicted=" + evictions + "/" + evictedBytes + "B read=" + bytesRead + "B written=" + bytesWritten
+                    + "B get p50/p99=" + getLatency.percentile(0.5) + "/" + getLatency.percentile(0.99) + "us"
+                    + " put p50/p99=" + putLatency.percentile(0.5) + "/" + putLatency.percentile(0.99) + "us";
+        }
+    }
+
+    /**
+     * 耗时直方图，第i个桶记录[2^(i-1), 2^i)微秒的次数，第0个桶记录小于1微秒的
+     */
+    public static final class Histogram {
+        public static final int BUCKETS = 32;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            counts.incrementAndGet(bucket);
+        }
+
+        public long getCount(int bucket) {
+            return counts.get(bucket);
+        }
+
+        public long getTotalCount() {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * @param percentile 0到1之间
+         * @return 所在桶的上限，单位微秒，没有数据时返回0
+         */
+        public long percentile(double percentile) {
+            long total = getTotalCount();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package cc.easyandroid.easycache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+/**
+ * 默认的缓存key：请求方法、参数排序后的url、请求体的摘要和指定的请求头。
+ * <p>
+ * GET请求的key只有url和指定的请求头，没有指定请求头时和之前按url保存的缓存兼容；
+ * 其他请求加上方法和请求体的md5，参数不同的POST请求不会互相覆盖。
+ * 请求体超过{@link #MAX_BODY_BYTES}或长度未知时不缓存，避免为了生成key读取大文件
+ */
+public class DefaultCacheKeyStrategy implements CacheKeyStrategy {
+    /**
+     * 最多读取多少字节的请求体生成摘要
+     */
+    public static final long MAX_BODY_BYTES = 64 * 1024;
+
+    private static final Comparator<String[]> BY_NAME = new Comparator<String[]>() {
+        @Override
+        public int compare(String[] lhs, String[] rhs) {
+            return lhs[0].compareTo(rhs[0]);
+        }
+    };
+
+    private final String[] varyHeaders;
+
+    /**
+     * @param varyHeaders 影响返回内容的请求头，比如Accept-Language、登录的token，值不同时分开缓存
+     */
+    public DefaultCacheKeyStrategy(String... varyHeaders) {
+        this.varyHeaders = varyHeaders.clone();
+    }
+
+    @Override
+    public String keyFor(Request request) {
+        StringBuilder key = new StringBuilder();
+        boolean get = "GET".equals(request.method());
+        if (!get) {
+            key.append(request.method()).append(' ');
+        }
+        key.append(canonicalUrl(request.url()));
+        if (!get && request.body() != null) {
+            String bodyHash = bodyHash(request.body());
+            if (bodyHash == null) {
+                return null;
+            }
+            key.append('#').append(bodyHash);
+        }
+        for (String name : varyHeaders) {
+            List<String> values = request.headers(name);
+            if (!values.isEmpty()) {
+                key.append('|').append(name.toLowerCase(Locale.US)).append('=');
+                for (int i = 0; i < values.size(); i++) {
+                    key.append(i == 0 ? "" : ",").append(values.get(i));
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * 参数按名字排序(同名参数保持原来的顺序)，去掉fragment，参数顺序不同的url共用缓存
+     */
+    static String canonicalUrl(HttpUrl url) {
+        int size = url.querySize();
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = url.queryParameterName(i - 1).compareTo(url.queryParameterName(i)) <= 0;
+        }
+        if (sorted && url.encodedFragment() == null) {// 不需要改变时保持原样，和按url保存的缓存兼容
+            return url.toString();
+        }
+        HttpUrl.Builder builder = url.newBuilder().fragment(null);
+        if (!sorted) {
+            List<String[]> parameters = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                parameters.add(new String[]{url.queryParameterName(i), url.queryParameterValue(i)});
+            }
+            Collections.sort(parameters, BY_NAME);// 稳定排序
+            builder.query(null);
+            for (String[] parameter : parameters) {
+                builder.addQueryParameter(parameter[0], parameter[1]);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    /**
+     * @return 请求体太大、长度未知或读取失败时返回null
+     */
+    private static String bodyHash(RequestBody body) {
+        try {
+            long length = body.contentLength();
+            if (length < 0 || length > MAX_BODY_BYTES) {
+                return null;
+            }
+            Buffer buffer = new Buffer();
+            MediaType contentType = body.contentType();
+            if (contentType != null) {
+                buffer.writeUtf8(contentType.toString()).writeByte('\n');
+            }
+            body.writeTo(buffer);
+            return buffer.readByteString().md5().hex();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -9,21 +9,35 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cc.easyandroid.easycache.dislrucache.DiskLruCache;
+import cc.easyandroid.easycache.serializer.BinarySerializer;
+import cc.easyandroid.easycache.serializer.CacheSerializer;
+import cc.easyandroid.easycache.serializer.GsonSerializer;
+import cc.easyandroid.easycore.EasyExecutor;
 
 /**
  * 缓存辅助类
+ * <p>
+ * 每条缓存有两个值，0是数据，1是过期时间。之前只有数据的缓存目录在第一次打开时会被DiskLruCache清空
+ * (值的数量不同时无法读取)，所以默认版本号同时升到了2
  * 
  * @author cgpllx1@qq.com
  *
@@ -31,12 +45,17 @@ import cc.easyandroid.easycache.dislrucache.DiskLruCache;
 public class EasyCacheUtils {
 	private static final String DIR_NAME = "diskCache";
 	private static final int MAX_SIZE = 50 * 1024 * 1024;// 50m
-	private static final int DEFAULT_CACHE_VERSION = 1;// 他升级将会删除缓存
-	private static final int DEFAULT_VALUECOUNT = 1;
+	private static final int DEFAULT_CACHE_VERSION = 2;// 他升级将会删除缓存，2：增加了过期时间，旧的缓存无法读取
+	private static final int DEFAULT_VALUECOUNT = 2;// 0是数据，1是过期时间，改变时已有的缓存会被清空
+	private static final int DATA_INDEX = 0;
+	private static final int EXPIRY_INDEX = 1;
+	private static final long NO_EXPIRY = 0;// 永不过期
+	private static final long SWEEP_INTERVAL = 10 * 60 * 1000;// 两次清理过期缓存至少间隔10分钟
 
 	public static final String TAG = EasyCacheUtils.class.getSimpleName();
 
 	protected final DiskLruCache mDiskLruCache;
+	private final AtomicLong mLastSweepTime = new AtomicLong();
 
 	public EasyCacheUtils(Context context, int cacheVersion) throws IOException {
 		this(context, DIR_NAME, cacheVersion);
@@ -46,12 +65,25 @@ public class EasyCacheUtils {
 		this(context, DEFAULT_CACHE_VERSION);
 	}
 
+	/**
+	 * @param cacheVersion 和上次打开时不同时清空缓存；只有数据没有过期时间的旧缓存不论版本号都会被清空
+	 */
 	public EasyCacheUtils(Context context, String dirName, int cacheVersion) throws IOException {
-		mDiskLruCache = generateCache(context, dirName, cacheVersion, DEFAULT_VALUECOUNT, MAX_SIZE);
+		this(CacheUtils.getDiskCacheDir(context, dirName), cacheVersion);
+	}
+
+	/**
+	 * 使用指定的缓存目录
+	 *
+	 * @param cacheVersion 和上次打开时不同时清空缓存
+	 */
+	public EasyCacheUtils(File directory, int cacheVersion) throws IOException {
+		mDiskLruCache = generateCache(directory, cacheVersion, DEFAULT_VALUECOUNT, MAX_SIZE);
+		sweepExpiredAsync();
 	}
 
-	private DiskLruCache generateCache(Context context, String dirName, int cacheVersion, int valueCount, long maxSize) throws IOException {
-		DiskLruCache diskLruCache = DiskLruCache.open(CacheUtils.getDiskCacheDir(context, dirName), //
+	private DiskLruCache generateCache(File directory, int cacheVersion, int valueCount, long maxSize) throws IOException {
+		DiskLruCache diskLruCache = DiskLruCache.open(directory, //
 				cacheVersion, valueCount, maxSize);
 		return diskLruCache;
 	}
@@ -61,14 +93,35 @@ public class EasyCacheUtils {
 	// =======================================
 
 	public void put(String key, String value) {
+		put(key, value, Charset.defaultCharset());
+	}
+
+	/**
+	 * 用指定的编码保存字符串，读取时用{@link #getAsString(String, Charset)}或{@link #getReader(String, Charset)}
+	 */
+	public void put(String key, String value, Charset charset) {
+		put(key, value, charset, NO_EXPIRY);
+	}
+
+	/**
+	 * 保存字符串，超过ttlMillis后{@link #getAsStringIfFresh(String)}不再返回
+	 */
+	public void put(String key, String value, long ttlMillis) {
+		put(key, value, Charset.defaultCharset(), ttlMillis);
+	}
+
+	/**
+	 * @param ttlMillis 有效时长，0表示永不过期
+	 */
+	public void put(String key, String value, Charset charset, long ttlMillis) {
 		DiskLruCache.Editor edit = null;
 		BufferedWriter bw = null;
 		try {
-			edit = editor(key);
+			edit = editor(key, ttlMillis);
 			if (edit == null)
 				return;
 			OutputStream os = edit.newOutputStream(0);
-			bw = new BufferedWriter(new OutputStreamWriter(os));
+			bw = new BufferedWriter(new OutputStreamWriter(os, charset));
 			bw.write(value);
 			edit.commit();// write CLEAN
 		} catch (IOException e) {
@@ -90,32 +143,55 @@ public class EasyCacheUtils {
 	}
 
 	public String getAsString(String key) {
-		InputStream inputStream = null;
+		return getAsString(key, Charset.defaultCharset());
+	}
+
+	/**
+	 * 按指定的编码读取，多字节字符不会在分块处被截断
+	 */
+	public String getAsString(String key, Charset charset) {
+		Reader reader = getReader(key, charset);
+		if (reader == null)
+			return null;
+		return readString(reader);
+	}
+
+	/**
+	 * 读完后关闭reader
+	 */
+	private static String readString(Reader reader) {
 		try {
-			// write READ
-			inputStream = get(key);
-			if (inputStream == null)
-				return null;
 			StringBuilder sb = new StringBuilder();
 			int len = 0;
-			byte[] buf = new byte[128];
-			while ((len = inputStream.read(buf)) != -1) {
-				sb.append(new String(buf, 0, len));
+			char[] buf = new char[1024];
+			while ((len = reader.read(buf)) != -1) {
+				sb.append(buf, 0, len);
 			}
 			return sb.toString();
-
 		} catch (IOException e) {
 			e.printStackTrace();
-			if (inputStream != null)
-				try {
-					inputStream.close();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+		} finally {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 		return null;
 	}
 
+	/**
+	 * 以字符流读取，边读边解码，不需要先把整个数据读到内存里，用完需要close
+	 *
+	 * @return 没有缓存时返回null
+	 */
+	public Reader getReader(String key, Charset charset) {
+		InputStream inputStream = get(key);
+		if (inputStream == null)
+			return null;
+		return new InputStreamReader(inputStream, charset);
+	}
+
 	public void put(String key, JSONObject jsonObject) {
 		put(key, jsonObject.toString());
 	}
@@ -163,10 +239,19 @@ public class EasyCacheUtils {
 	 *            保存的数据
 	 */
 	public void put(String key, byte[] value) {
+		put(key, value, NO_EXPIRY);
+	}
+
+	/**
+	 * 保存 byte数据，超过ttlMillis后{@link #getIfFresh(String)}不再返回
+	 *
+	 * @param ttlMillis 有效时长，0表示永不过期
+	 */
+	public void put(String key, byte[] value, long ttlMillis) {
 		OutputStream out = null;
 		DiskLruCache.Editor editor = null;
 		try {
-			editor = editor(key);
+			editor = editor(key, ttlMillis);
 			if (editor == null) {
 				return;
 			}
@@ -205,11 +290,18 @@ public class EasyCacheUtils {
 	 *            保存的数据
 	 */
 	public int put(String key, InputStream value) {
+		return put(key, value, NO_EXPIRY);
+	}
+
+	/**
+	 * @param ttlMillis 有效时长，0表示永不过期
+	 */
+	public int put(String key, InputStream value, long ttlMillis) {
 		int count = -1;
 		OutputStream out = null;
 		DiskLruCache.Editor editor = null;
 		try {
-			editor = editor(key);
+			editor = editor(key, ttlMillis);
 			if (editor == null) {
 				return count;
 			}
@@ -261,22 +353,63 @@ public class EasyCacheUtils {
 	}
 
 	public byte[] getAsBytes(String key) {
-		byte[] res = null;
-		InputStream is = get(key);
-		if (is == null)
+		DiskLruCache.Snapshot snapshot = getDataSnapshot(key);
+		if (snapshot == null)
 			return null;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		try {
-			byte[] buf = new byte[256];
-			int len = 0;
-			while ((len = is.read(buf)) != -1) {
-				baos.write(buf, 0, len);
+			// 按文件大小分配，直接读进结果数组，只复制一次
+			FileChannel channel = snapshot.getChannel(DATA_INDEX);
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				return null;
 			}
-			res = baos.toByteArray();
+			byte[] res = new byte[(int) size];
+			ByteBuffer buffer = ByteBuffer.wrap(res);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) == -1) {
+					return null;
+				}
+			}
+			return res;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			snapshot.close();
+		}
+		return null;
+	}
+
+	/**
+	 * 只读地映射缓存文件，数据不占用java堆，适合较大的缓存，比如离线地图、大的json。
+	 * 映射在缓存被修改或删除后仍然有效，读到的是映射时的数据
+	 *
+	 * @return 没有缓存时返回null
+	 */
+	public ByteBuffer getAsByteBuffer(String key) {
+		DiskLruCache.Snapshot snapshot = getDataSnapshot(key);
+		if (snapshot == null)
+			return null;
+		try {
+			FileChannel channel = snapshot.getChannel(DATA_INDEX);
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			snapshot.close();
 		}
-		return res;
+		return null;
+	}
+
+	/**
+	 * 缓存文件的FileChannel，可以用transferTo直接写到socket或其他文件，用完需要close
+	 *
+	 * @return 没有缓存时返回null
+	 */
+	public FileChannel getChannel(String key) {
+		DiskLruCache.Snapshot snapshot = getDataSnapshot(key);
+		if (snapshot == null)
+			return null;
+		return snapshot.getChannel(DATA_INDEX);
 	}
 
 	// =======================================
@@ -335,6 +468,64 @@ public class EasyCacheUtils {
 		return t;
 	}
 
+	// =======================================
+	// ============== 对象 数据 读写 =============
+	// =======================================
+
+	/**
+	 * 用指定的序列化方式保存对象，比{@link #put(String, Serializable)}快，结果也更小
+	 *
+	 * @param serializer 比如{@link GsonSerializer}、{@link BinarySerializer}
+	 */
+	public <T> void put(String key, T value, CacheSerializer<? super T> serializer) {
+		DiskLruCache.Editor editor = editor(key);
+		OutputStream out = null;
+		if (editor == null)
+			return;
+		try {
+			out = new BufferedOutputStream(editor.newOutputStream(0));
+			serializer.write(value, out);
+			out.flush();
+			editor.commit();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			// 序列化失败时Gson、BinarySerializer会抛出RuntimeException，editor也要放弃，否则这个key不能再写入
+			editor.abortUnlessCommitted();
+		}
+	}
+
+	/**
+	 * 读取用{@link #put(String, Object, CacheSerializer)}保存的对象，需要用同样的序列化方式
+	 *
+	 * @return 没有缓存或读取失败时返回null
+	 */
+	public <T> T get(String key, CacheSerializer<T> serializer) {
+		InputStream is = get(key);
+		if (is == null)
+			return null;
+		try {
+			return serializer.read(new BufferedInputStream(is));
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {// 数据和类型不匹配时Gson会抛出JsonSyntaxException
+			e.printStackTrace();
+		} finally {
+			try {
+				is.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return null;
+	}
+
 	// =======================================
 	// ============== bitmap 数据 读写 =============
 	// =======================================
@@ -401,6 +592,29 @@ public class EasyCacheUtils {
 		mDiskLruCache.setMaxSize(maxSize);
 	}
 
+	/**
+	 * 日志的可靠程度，默认{@link DiskLruCache.Durability#FLUSH}，写入返回时日志已经交给系统；
+	 * {@link DiskLruCache.Durability#NONE}不等待日志，崩溃时可能丢失最近写入的缓存
+	 */
+	public void setDurability(DiskLruCache.Durability durability) {
+		mDiskLruCache.setDurability(durability);
+	}
+
+	/**
+	 * 合并写日志，最多等待delayMillis或攒够maxLines行后一次写入，大量写入时减少系统调用；
+	 * 除了{@link DiskLruCache.Durability#NONE}，写入都要等自己的日志，只有并发的写入和读取、删除的日志会合并
+	 */
+	public void setGroupCommit(long delayMillis, int maxLines) {
+		mDiskLruCache.setGroupCommit(delayMillis, maxLines);
+	}
+
+	/**
+	 * 统计命中、淘汰、读写字节数和耗时，记在{@link CacheMetrics#DISK_LRU}下
+	 */
+	public void setMetrics(CacheMetrics metrics) {
+		mDiskLruCache.setMetrics(metrics);
+	}
+
 	public File getDirectory() {
 		return mDiskLruCache.getDirectory();
 	}
@@ -414,17 +628,33 @@ public class EasyCacheUtils {
 	// =======================================
 	// basic editor
 	public DiskLruCache.Editor editor(String key) {
+		return editor(key, NO_EXPIRY);
+	}
+
+	/**
+	 * 数据写入第0个值，过期时间已经写入第1个值，之前的过期时间会被替换
+	 *
+	 * @param ttlMillis 有效时长，0表示永不过期
+	 */
+	public DiskLruCache.Editor editor(String key, long ttlMillis) {
+		DiskLruCache.Editor edit = null;
 		try {
 			key = CacheUtils.hashKeyForDisk(key);
 			// wirte DIRTY
-			DiskLruCache.Editor edit = mDiskLruCache.edit(key);
+			edit = mDiskLruCache.edit(key);
 			// edit maybe null :the entry is editing
 			if (edit == null) {
 				Log.w(TAG, "the entry spcified key:" + key + " is editing by other . ");
+				return null;
 			}
+			long expiry = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : NO_EXPIRY;
+			edit.set(EXPIRY_INDEX, Long.toString(expiry));
 			return edit;
 		} catch (IOException e) {
 			e.printStackTrace();
+			if (edit != null) {
+				edit.abortUnlessCommitted();
+			}
 		}
 
 		return null;
@@ -432,6 +662,167 @@ public class EasyCacheUtils {
 
 	// basic get
 	public InputStream get(String key) {
+		DiskLruCache.Snapshot snapshot = getDataSnapshot(key);
+		if (snapshot == null)
+			return null;
+		return snapshot.getInputStream(DATA_INDEX);
+	}
+
+	// =======================================
+	// ============== 过期时间 =============
+	// =======================================
+
+	/**
+	 * 只读取过期时间，没有过期时才打开数据文件
+	 *
+	 * @return 没有缓存或已经过期时返回null
+	 */
+	public InputStream getIfFresh(String key) {
+		if (!isFresh(key))
+			return null;
+		return get(key);
+	}
+
+	public String getAsStringIfFresh(String key) {
+		InputStream inputStream = getIfFresh(key);
+		if (inputStream == null)
+			return null;
+		return readString(new InputStreamReader(inputStream, Charset.defaultCharset()));
+	}
+
+	/**
+	 * 用完需要close
+	 *
+	 * @return 没有缓存或已经过期时返回null
+	 */
+	public DiskLruCache.Snapshot getSnapshotIfFresh(String key) {
+		if (!isFresh(key))
+			return null;
+		return getSnapshot(key);
+	}
+
+	/**
+	 * 有缓存并且没有过期，过期时在后台清理
+	 */
+	private boolean isFresh(String key) {
+		long expiry = getExpiry(key);
+		if (expiry < 0) {
+			return false;
+		}
+		if (isExpired(expiry)) {
+			sweepExpiredAsync();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 过期的时间点，只读取保存过期时间的小文件
+	 *
+	 * @return 单位毫秒，0表示永不过期，没有缓存时返回-1
+	 */
+	public long getExpiry(String key) {
+		try {
+			return parseExpiry(mDiskLruCache.peekString(CacheUtils.hashKeyForDisk(key), EXPIRY_INDEX));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+	}
+
+	/**
+	 * 删除所有过期的缓存，释放空间，在调用的线程中执行
+	 *
+	 * @return 删除的缓存数量
+	 */
+	public int sweepExpired() {
+		mLastSweepTime.set(System.currentTimeMillis());
+		int removed = 0;
+		try {
+			for (String key : mDiskLruCache.keys()) {
+				if (!isExpired(parseExpiry(mDiskLruCache.peekString(key, EXPIRY_INDEX)))) {
+					continue;
+				}
+				// 重新在快照中确认，期间被重新写入的缓存不删除
+				DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
+				if (snapshot == null) {
+					continue;
+				}
+				try {
+					if (isExpired(parseExpiry(snapshot.getString(EXPIRY_INDEX))) && mDiskLruCache.removeIfUnchanged(snapshot)) {
+						removed++;
+					}
+				} finally {
+					snapshot.close();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (IllegalStateException e) {// 缓存已经关闭
+			e.printStackTrace();
+		}
+		return removed;
+	}
+
+	/**
+	 * 在后台删除过期的缓存，距离上次清理不到{@link #SWEEP_INTERVAL}时不执行
+	 */
+	public void sweepExpiredAsync() {
+		long last = mLastSweepTime.get();
+		long now = System.currentTimeMillis();
+		if (now - last < SWEEP_INTERVAL || !mLastSweepTime.compareAndSet(last, now)) {
+			return;
+		}
+		EasyExecutor.getThreadExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				int removed = sweepExpired();
+				if (removed > 0) {
+					Log.d(TAG, "swept " + removed + " expired entries");
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return -1表示没有缓存
+	 */
+	private static long parseExpiry(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return NO_EXPIRY;
+		}
+	}
+
+	private static boolean isExpired(long expiry) {
+		return expiry > NO_EXPIRY && expiry < System.currentTimeMillis();
+	}
+
+	/**
+	 * 只打开数据文件的快照，关闭数据的流或FileChannel就释放了快照的所有文件，
+	 * 返回流或FileChannel给调用者的方法都用它，否则过期时间的文件不会被关闭
+	 *
+	 * @return 没有缓存时返回null
+	 */
+	private DiskLruCache.Snapshot getDataSnapshot(String key) {
+		try {
+			return mDiskLruCache.get(CacheUtils.hashKeyForDisk(key), DATA_INDEX);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * 读取缓存的快照，之后的修改不影响快照，用完需要close
+	 *
+	 * @return 没有缓存时返回null
+	 */
+	public DiskLruCache.Snapshot getSnapshot(String key) {
 		try {
 			DiskLruCache.Snapshot snapshot = mDiskLruCache.get(CacheUtils.hashKeyForDisk(key));
 			if (snapshot == null) // not find entry , or entry.readable = false
@@ -440,7 +831,7 @@ public class EasyCacheUtils {
 				return null;
 			}
 			// write READ
-			return snapshot.getInputStream(0);
+			return snapshot;
 
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -1,13 +1,42 @@
 package cc.easyandroid.easycache;
 
 import android.content.Context;
+import android.os.SystemClock;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+import cc.easyandroid.easycache.volleycache.BatchCache;
 import cc.easyandroid.easycache.volleycache.Cache;
 import cc.easyandroid.easycache.volleycache.DiskBasedCache;
+import cc.easyandroid.easycache.volleycache.KeyHasher;
+import cc.easyandroid.easycache.volleycache.MemoryTierCache;
+import cc.easyandroid.easycache.volleycache.Murmur3KeyHasher;
 import cc.easyandroid.easycore.EAResult;
+import cc.easyandroid.easycore.EasyExecutor;
 import cc.easyandroid.easylog.EALog;
+import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.ResponseBody;
@@ -17,7 +46,48 @@ import okhttp3.ResponseBody;
  */
 public class EasyHttpCache {
     public static final int DEFAULTCACHEDURATION = 60 * 60 * 24 * 5;//默认缓存时长 5天  单位是秒
-    final Cache cache;
+    private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;//默认缓存大小 5M
+    private static final int DEFAULT_COMPRESS_THRESHOLD = 1024;//小于1K的数据不压缩
+    private static final String DEFAULT_MIME_TYPE = "application/json; charset=UTF-8";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    /**
+     * 请求头，缓存的标签，多个用逗号分隔，用于{@link #invalidateTag(String)}
+     */
+    public static final String HEADER_CACHE_TAG = "Cache-Tag";
+    final BatchCache cache;
+    /**
+     * 初始化任务，异步初始化时在后台执行，读缓存前需等待它完成
+     */
+    private final FutureTask<Void> initializeTask;
+    private volatile long initializeTime = -1;
+    /**
+     * 解析后的对象缓存，没有开启时为null
+     */
+    private final ParsedObjectCache parsedObjectCache;
+    /**
+     * 是否压缩缓存的数据，小于compressThreshold的不压缩
+     */
+    private final boolean compress;
+    private final int compressThreshold;
+    private final CacheKeyStrategy keyStrategy;
+    /**
+     * 一次请求会多次用到同一个Request的key(合并请求、读缓存、条件请求、写缓存)，POST请求每次都要序列化请求体计算md5，
+     * 所以按Request记住算过的key。Request没有重写equals，按对象区分；Request不再使用后自动回收
+     */
+    private final Map<Request, String> keys = Collections.synchronizedMap(new WeakHashMap<Request, String>());
+    /**
+     * 不能缓存的请求在keys中的值
+     */
+    private static final String NO_KEY = new String("");
+    /**
+     * 命中、过期、耗时等统计，默认不统计
+     */
+    private volatile CacheMetrics metrics = CacheMetrics.NONE;
+    /**
+     * 标签到缓存key的索引，保存在缓存目录旁边
+     */
+    private final CacheTagIndex tagIndex;
 
     /**
      * 使用前先进行初始化
@@ -25,38 +95,403 @@ public class EasyHttpCache {
      * @param context context
      */
     public EasyHttpCache(Context context) {
-        cache = new DiskBasedCache(CacheUtils.getDiskCacheDir(context.getApplicationContext(), "volleycache"));
-        cache.initialize();
+        this(context, false);
+    }
+
+    /**
+     * 使用前先进行初始化
+     *
+     * @param context    context
+     * @param concurrent true 不同key的读写互不阻塞
+     */
+    public EasyHttpCache(Context context, boolean concurrent) {
+        this(new Builder(context).setConcurrent(concurrent));
+    }
+
+    private EasyHttpCache(Builder builder) {
+        final BatchCache cache = builder.createCache();
+        this.cache = cache;
+        this.parsedObjectCache = builder.parsedObjectCacheSize > 0 ? new ParsedObjectCache(builder.parsedObjectCacheSize, builder.parsedTypes) : null;
+        this.compress = builder.compress;
+        this.compressThreshold = builder.compressThreshold;
+        this.keyStrategy = builder.keyStrategy;
+        setMetrics(builder.metrics);
+        final CacheTagIndex tagIndex = new CacheTagIndex(builder.tagIndexFile());
+        this.tagIndex = tagIndex;
+        Cache diskCache = cache instanceof MemoryTierCache ? ((MemoryTierCache) cache).getDelegate() : cache;
+        if (diskCache instanceof DiskBasedCache) {// 淘汰和损坏删除的缓存也从标签中去掉，索引文件不会一直变大
+            ((DiskBasedCache) diskCache).setRemovalListener(new DiskBasedCache.RemovalListener() {
+                @Override
+                public void onRemoved(String key) {
+                    tagIndex.remove(key);
+                    onEntryChanged(key);
+                }
+            });
+        }
+        this.initializeTask = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.elapsedRealtime();
+                cache.initialize();
+                tagIndex.load(new CacheTagIndex.Filter() {
+                    @Override
+                    public boolean contains(String key) {
+                        return cache.getMetadata(key) != null;
+                    }
+                });
+                initializeTime = SystemClock.elapsedRealtime() - start;
+                EALog.d("easycache initialized in %1$sms", initializeTime + "");
+            }
+        }, null);
+        if (builder.asyncInitialize) {
+            EasyExecutor.getThreadExecutor().execute(initializeTask);
+        } else {
+            initializeTask.run();
+        }
+    }
+
+    /**
+     * 初始化是否完成
+     */
+    public boolean isInitialized() {
+        return initializeTask.isDone();
+    }
+
+    /**
+     * 初始化耗时，用于监控冷启动
+     *
+     * @return 单位毫秒，还没有完成时返回-1
+     */
+    public long getInitializeTime() {
+        return initializeTime;
+    }
+
+    /**
+     * 等待初始化完成，只有读写缓存时才需要等待
+     */
+    private void awaitInitialized() {
+        try {
+            initializeTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            EALog.e(e.getCause(), "easycache initialize failed");
+        }
     }
 
     public void put(Request request, Object object, byte[] data) throws UnsupportedEncodingException {
-        parseCache(request, object, data, "application/json; charset=UTF-8");
+        put(request, object, data, null);
     }
 
-    public ResponseBody get(Request request) {
+    /**
+     * @param headers 网络返回的响应头，保存ETag、Last-Modified用于条件请求
+     */
+    public void put(Request request, Object object, byte[] data, Headers headers) throws UnsupportedEncodingException {
+        parseCache(request, object, data, DEFAULT_MIME_TYPE, headers);
+    }
+
+    /**
+     * 缓存有ETag或Last-Modified时加上If-None-Match、If-Modified-Since，
+     * 服务器返回304时调用{@link #refresh(Request)}延长缓存时间，不需要重新下载
+     *
+     * @param request request
+     * @return 没有缓存时返回原来的request
+     */
+    public Request conditionalRequest(Request request) {
+        checkNull(cache);
+        awaitInitialized();
+        String key = keyFor(request);
+        Cache.Entry entry = key != null ? cache.getMetadata(key) : null;
+        if (entry == null) {
+            return request;
+        }
+        String etag = entry.responseHeaders.get(HEADER_ETAG);
+        String lastModified = entry.responseHeaders.get(HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            return request;
+        }
+        Request.Builder builder = request.newBuilder();
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            builder.header("If-Modified-Since", lastModified);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 服务器返回304，缓存没有变化，按请求头重新计算过期时间，不重写缓存的数据
+     *
+     * @return 缓存不存在时返回false
+     */
+    public boolean refresh(Request request) {
+        checkNull(cache);
+        awaitInitialized();
+        String key = keyFor(request);
+        if (key == null) {
+            return false;
+        }
+        Cache.Entry entry = newEntry(request, null, null);
+        boolean refreshed = cache.refresh(key, entry.softTtl, entry.ttl);
+        onEntryChanged(key);
+        return refreshed;
+    }
+
+    /**
+     * 缓存存在并且还不需要刷新，只读取内存中的元数据，不读取缓存的数据
+     */
+    public boolean isFresh(Request request) {
         checkNull(cache);
-        Cache.Entry entry = cache.get(request.url().toString());// 充缓存中获取entry
+        awaitInitialized();
+        String key = keyFor(request);
+        Cache.Entry entry = key != null ? cache.getMetadata(key) : null;
+        return entry != null && !entry.refreshNeeded();
+    }
+
+    /**
+     * 是否有这个请求的缓存，过期的也算，只读取内存中的元数据
+     */
+    public boolean contains(Request request) {
+        checkNull(cache);
+        awaitInitialized();
+        String key = keyFor(request);
+        return key != null && cache.getMetadata(key) != null;
+    }
+
+    public ResponseBody get(Request request) {
+        Cache.Entry entry = getEntry(request);
         if (entry == null) {
             return null;
         }
+        return toResponseBody(entry);
+    }
+
+    /**
+     * 读取缓存并解析，开启了对象缓存时直接返回解析过的对象
+     *
+     * @param request request
+     * @param type    解析的类型，null或没有注册时不使用对象缓存
+     * @param parser  解析缓存的数据
+     * @return 没有缓存或已经过期时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getParsed(Request request, Type type, Parser<T> parser) throws IOException {
+        String key = keyFor(request);
+        if (key == null) {
+            return null;
+        }
+        ParsedObjectCache objects = type != null && parsedObjectCache != null && parsedObjectCache.accepts(type) ? parsedObjectCache : null;
+        long generation = 0;
+        if (objects != null) {
+            Object object = objects.get(key, type);
+            if (object != null) {
+                return (T) object;
+            }
+            generation = objects.generation();
+        }
+        Cache.Entry entry = getEntry(key);
+        if (entry == null) {
+            return null;
+        }
+        T t = parser.parse(toResponseBody(entry));
+        if (objects != null) {
+            objects.put(key, type, t, entry.ttl, generation);
+        }
+        return t;
+    }
+
+    /**
+     * 解析后的对象缓存，没有开启时返回null
+     */
+    public ParsedObjectCache getParsedObjectCache() {
+        return parsedObjectCache;
+    }
+
+    /**
+     * 取出没有过期的缓存，{@link Cache.Entry#refreshNeeded()}为true时表示需要后台刷新
+     *
+     * @param request request
+     * @return 没有缓存或已经过期时返回null
+     */
+    public Cache.Entry getEntry(Request request) {
+        String key = keyFor(request);
+        return key != null ? getEntry(key) : null;
+    }
+
+    private Cache.Entry getEntry(String key) {
+        checkNull(cache);
+        awaitInitialized();
+        CacheMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+        Cache.Entry entry = cache.get(key);// 充缓存中获取entry
+        metrics.onGetLatency(CacheMetrics.HTTP, System.nanoTime() - start);
+        return record(metrics, entry);
+    }
+
+    /**
+     * 记录一次读取的结果
+     *
+     * @return 可以使用的缓存，没有或已经过期时返回null
+     */
+    private static Cache.Entry record(CacheMetrics metrics, Cache.Entry entry) {
+        if (entry == null || entry.data == null) {
+            metrics.onMiss(CacheMetrics.HTTP);
+            return null;
+        }
         if (entry.isExpired()) {// 缓存过期了
+            metrics.onExpired(CacheMetrics.HTTP, true);
+            metrics.onMiss(CacheMetrics.HTTP);
             return null;
         }
-        if (entry.data != null) {// 如果有数据就使用缓存
-            MediaType contentType = MediaType.parse(entry.mimeType);
-            byte[] bytes = entry.data;
+        if (entry.refreshNeeded()) {// 还能用，但需要后台刷新
+            metrics.onExpired(CacheMetrics.HTTP, false);
+        }
+        metrics.onHit(CacheMetrics.HTTP);
+        return entry;
+    }
+
+    /**
+     * 一次取出多个请求的缓存，同一把锁下的文件只加锁一次并在后台线程并行读取，用于首页等一次请求很多接口的预加载
+     *
+     * @param requests requests
+     * @return 没有过期的缓存，没有缓存的request不在结果中
+     */
+    public Map<Request, Cache.Entry> getAll(Collection<Request> requests) {
+        checkNull(cache);
+        awaitInitialized();
+        Map<Request, String> keys = new HashMap<>(requests.size());
+        for (Request request : requests) {
+            String key = keyFor(request);
+            if (key != null) {
+                keys.put(request, key);
+            }
+        }
+        Map<String, Cache.Entry> entries = cache.getAll(keys.values());
+        Map<Request, Cache.Entry> result = new HashMap<>();
+        for (Map.Entry<Request, String> key : keys.entrySet()) {
+            Request request = key.getKey();
+            Cache.Entry entry = record(metrics, entries.get(key.getValue()));
+            if (entry != null) {
+                result.put(request, entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把缓存转成ResponseBody，用于解析
+     */
+    public static ResponseBody toResponseBody(Cache.Entry entry) {
+        MediaType contentType = MediaType.parse(entry.mimeType);
+        if (entry.compressed) {// 边解压边解析，不需要先解压成byte[]
+            return new CacheResponseBody(contentType, -1, new InflaterInputStream(new ByteArrayInputStream(entry.data)));
+        }
+        return new CacheResponseBody(contentType, entry.data);
+    }
+
+    /**
+     * 缓存内容解压后的校验和，用于判断刷新后内容是否变化
+     */
+    public static long checksum(Cache.Entry entry) {
+        if (!entry.compressed) {
+            return checksum(entry.data);
+        }
+        CheckedInputStream in = new CheckedInputStream(new InflaterInputStream(new ByteArrayInputStream(entry.data)), new CRC32());
+        try {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                // 只需要计算校验和
+            }
+            return in.getChecksum().getValue();
+        } catch (IOException e) {
+            return -1;
+        } finally {
             try {
-                return ResponseBody.create(contentType, bytes);
-            } catch (Exception e) {
-                e.printStackTrace();
+                in.close();
+            } catch (IOException ignored) {
             }
         }
-        return null;
+    }
+
+    /**
+     * 缓存内容的校验和，用于判断刷新后内容是否变化
+     */
+    public static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    /**
+     * 内存缓存层，没有开启时返回null
+     *
+     * @return MemoryTierCache
+     */
+    public MemoryTierCache getMemoryCache() {
+        return cache instanceof MemoryTierCache ? (MemoryTierCache) cache : null;
     }
 
     public void clearCache() {
         checkNull(cache);
+        awaitInitialized();
         cache.clear();
+        tagIndex.clear();
+        if (parsedObjectCache != null) {
+            parsedObjectCache.clear();
+        }
+    }
+
+    /**
+     * 删除带有这个标签的所有缓存，比如登录或修改订单后删除所有订单相关的接口，
+     * 只处理这个标签下的缓存，不需要清空整个缓存。
+     * 标签在写入时由请求头{@link #HEADER_CACHE_TAG}或{@link #tag(Request, String...)}指定
+     *
+     * @param tag 标签
+     * @return 删除的缓存数量
+     */
+    public int invalidateTag(String tag) {
+        checkNull(cache);
+        awaitInitialized();
+        Set<String> keys = tagIndex.removeTag(tag);
+        for (String key : keys) {
+            cache.remove(key);
+            onEntryChanged(key);
+        }
+        return keys.size();
+    }
+
+    /**
+     * 给已经缓存的请求增加标签，原来的标签保留，之后重新写入时和请求头{@link #HEADER_CACHE_TAG}的标签合并，
+     * 缓存被删除后失效
+     *
+     * @return 没有缓存时返回false
+     */
+    public boolean tag(Request request, String... tags) {
+        checkNull(cache);
+        awaitInitialized();
+        String key = keyFor(request);
+        if (key == null || cache.getMetadata(key) == null) {
+            return false;
+        }
+        tagIndex.add(key, tags);
+        return true;
+    }
+
+    /**
+     * 请求头{@link #HEADER_CACHE_TAG}中的标签，可以有多个请求头，每个可以用逗号分隔多个标签
+     */
+    static List<String> tagsOf(Request request) {
+        List<String> tags = new ArrayList<>();
+        for (String header : request.headers(HEADER_CACHE_TAG)) {
+            for (String tag : header.split(",")) {
+                tag = tag.trim();
+                if (tag.length() > 0) {
+                    tags.add(tag);
+                }
+            }
+        }
+        return tags;
     }
 
     //将结果保存到cache中
@@ -77,30 +512,216 @@ public class EasyHttpCache {
                     entry.mimeType = mimeType;
                     entry.data = data;
                     checkNull(cache);
-                    cache.put(request.url().toString(), entry);
+                    String key = keyFor(request);
+                    if (key != null) {
+                        cache.put(key, entry);
+                    }
                 }
             }
         }
     }
 
     //将结果保存到cache中
-    private void parseCache(Request request, Object object, byte[] data, String mimeType) throws UnsupportedEncodingException {
-        String cache_time = request.header("Cache-Duration");//缓存时长
-        long maxAgeSeconds = parseSeconds(cache_time, DEFAULTCACHEDURATION);
-        if (chechCanSave(object)) {
-            long now = System.currentTimeMillis();
-            long maxAge = maxAgeSeconds;
-            long softExpire = now + maxAge * 1000;
-            EALog.d("easycache When long: %1$s秒", (softExpire - now) / 1000 + "");
-            Cache.Entry entry = new Cache.Entry();
-            entry.softTtl = softExpire;
-            entry.ttl = entry.softTtl;
-            entry.mimeType = mimeType;
+    private void parseCache(Request request, Object object, byte[] data, String mimeType, Headers headers) throws UnsupportedEncodingException {
+        String key = keyFor(request);
+        if (key != null && chechCanSave(object)) {
+            Cache.Entry entry = newEntry(request, mimeType, headers);
             entry.data = data;
+            if (shouldCompress(data.length)) {
+                byte[] compressed = compress(data);
+                if (compressed.length < data.length) {
+                    entry.data = compressed;
+                    entry.compressed = true;
+                }
+            }
             checkNull(cache);
-            cache.put(request.url().toString(), entry);
+            putEntry(key, entry, tagsOf(request));
+        }
+    }
+
+    /**
+     * @param length 数据长度，-1表示未知
+     */
+    private boolean shouldCompress(long length) {
+        return compress && (length < 0 || length >= compressThreshold);
+    }
+
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater);
+            deflaterOut.write(data);
+            deflaterOut.finish();
+            return out.toByteArray();
+        } catch (IOException e) {// ByteArrayOutputStream不会抛出
+            return data;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 根据请求头Cache-Duration生成缓存的过期时间，Cache-Refresh-Duration生成需要刷新的时间
+     */
+    private Cache.Entry newEntry(Request request, String mimeType, Headers headers) {
+        String cache_time = request.header("Cache-Duration");//缓存时长
+        int maxAgeSeconds = parseSeconds(cache_time, DEFAULTCACHEDURATION);
+        String refresh_time = request.header("Cache-Refresh-Duration");//多久后需要刷新，不超过缓存时长
+        long refreshSeconds = Math.min(parseSeconds(refresh_time, maxAgeSeconds), maxAgeSeconds);
+        long now = System.currentTimeMillis();
+        long softExpire = now + refreshSeconds * 1000;
+        long expire = now + maxAgeSeconds * 1000L;
+        EALog.d("easycache When long: %1$s秒", (expire - now) / 1000 + "");
+        Cache.Entry entry = new Cache.Entry();
+        entry.softTtl = softExpire;
+        entry.ttl = expire;
+        entry.mimeType = mimeType;
+        if (headers != null) {
+            Date date = headers.getDate("Date");
+            entry.serverDate = date != null ? date.getTime() : 0;
+            Map<String, String> validators = new HashMap<>();
+            if (headers.get(HEADER_ETAG) != null) {
+                validators.put(HEADER_ETAG, headers.get(HEADER_ETAG));
+            }
+            if (headers.get(HEADER_LAST_MODIFIED) != null) {
+                validators.put(HEADER_LAST_MODIFIED, headers.get(HEADER_LAST_MODIFIED));
+            }
+            entry.responseHeaders = validators;
+        }
+        return entry;
+    }
+
+    /**
+     * 边读取网络数据边写入缓存文件，解析成功后再调用{@link Editor#commit(Object)}提交，
+     * 不需要把整个响应体保存成byte[]
+     *
+     * @param request request
+     * @param body    网络返回的body，是{@link NetworkResponseBody}时同时保存ETag、Last-Modified
+     * @return 不支持流式写入时返回null，这时使用{@link #put(Request, Object, byte[], Headers)}
+     */
+    public Editor edit(Request request, ResponseBody body) {
+        return edit(request, body.contentType(), body.contentLength(), headersOf(body));
+    }
+
+    /**
+     * 网络返回的响应头，不是{@link NetworkResponseBody}时返回null
+     */
+    public static Headers headersOf(ResponseBody body) {
+        return body instanceof NetworkResponseBody ? ((NetworkResponseBody) body).headers() : null;
+    }
+
+    /**
+     * @param request     request
+     * @param contentType 响应体的类型
+     * @param headers     网络返回的响应头，可以为null
+     * @return 不支持流式写入时返回null，这时使用{@link #put(Request, Object, byte[], Headers)}
+     */
+    public Editor edit(Request request, MediaType contentType, Headers headers) {
+        return edit(request, contentType, -1, headers);
+    }
+
+    /**
+     * @param contentLength 响应体的长度，-1表示未知，用于判断是否需要压缩
+     */
+    private Editor edit(Request request, MediaType contentType, long contentLength, Headers headers) {
+        checkNull(cache);
+        Cache diskCache = cache instanceof MemoryTierCache ? ((MemoryTierCache) cache).getDelegate() : cache;
+        if (!(diskCache instanceof DiskBasedCache)) {
+            return null;
+        }
+        String key = keyFor(request);
+        if (key == null) {
+            return null;
+        }
+        String mimeType = contentType != null ? contentType.toString() : DEFAULT_MIME_TYPE;
+        Cache.Entry entry = newEntry(request, mimeType, headers);
+        entry.compressed = shouldCompress(contentLength);
+        try {
+            return new Editor(key, ((DiskBasedCache) diskCache).edit(key, entry), entry.compressed, tagsOf(request));
+        } catch (IOException e) {
+            EALog.e(e, "easycache edit failed");
+            return null;
+        }
+    }
+
+    /**
+     * 请求的缓存key，由{@link Builder#setCacheKeyStrategy(CacheKeyStrategy)}决定
+     *
+     * @return 不能缓存的请求返回null
+     */
+    public String keyFor(Request request) {
+        String key = keys.get(request);
+        if (key == null) {
+            key = keyStrategy.keyFor(request);
+            keys.put(request, key != null ? key : NO_KEY);
+            return key;
+        }
+        return key != NO_KEY ? key : null;
+    }
+
+    /**
+     * 还没有初始化完成时，写入放到后台等初始化完成后执行，不阻塞网络线程
+     */
+    private void putEntry(final String key, final Cache.Entry entry, final List<String> tags) {
+        if (isInitialized()) {
+            put(key, entry, tags);
+            return;
+        }
+        EasyExecutor.getThreadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitInitialized();
+                put(key, entry, tags);
+            }
+        });
+    }
+
+    /**
+     * 写入后再更新标签，写入期间按标签删除时宁可多删这条新缓存，也不留下没有标签的缓存
+     */
+    private void put(String key, Cache.Entry entry, List<String> tags) {
+        long start = System.nanoTime();
+        cache.put(key, entry);
+        metrics.onPutLatency(CacheMetrics.HTTP, System.nanoTime() - start);
+        tagIndex.put(key, tags);
+        onEntryChanged(key);
+    }
+
+    /**
+     * 统计命中、过期、淘汰、读写字节数和耗时，同时设置给内存缓存和磁盘缓存，
+     * 分别记在{@link CacheMetrics#HTTP}、{@link CacheMetrics#MEMORY}和{@link CacheMetrics#DISK}下
+     *
+     * @param metrics null表示不统计
+     */
+    public void setMetrics(CacheMetrics metrics) {
+        if (metrics == null) {
+            metrics = CacheMetrics.NONE;
+        }
+        this.metrics = metrics;
+        Cache diskCache = cache;
+        if (cache instanceof MemoryTierCache) {
+            ((MemoryTierCache) cache).setMetrics(metrics);
+            diskCache = ((MemoryTierCache) cache).getDelegate();
+        }
+        if (diskCache instanceof DiskBasedCache) {
+            ((DiskBasedCache) diskCache).setMetrics(metrics);
+        }
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 缓存写入后解析过的对象失效，必须在写入之后调用，保证解析旧数据的结果不会被保存
+     */
+    private void onEntryChanged(String key) {
+        if (parsedObjectCache != null) {
+            parsedObjectCache.remove(key);
         }
     }
+
     public static int parseSeconds(String value, int defaultValue) {
         try {
             long seconds = Long.parseLong(value);
@@ -134,4 +755,274 @@ public class EasyHttpCache {
         }
 
     }
+
+    /**
+     * 解析缓存的数据
+     */
+    public interface Parser<T> {
+        T parse(ResponseBody body) throws IOException;
+    }
+
+    /**
+     * 流式写入一条缓存，commit或abort只能调用一次
+     */
+    public class Editor {
+        private final String key;
+        private final DiskBasedCache.Editor editor;
+        /**
+         * 压缩时不为null，用完后需要end释放native内存
+         */
+        private final Deflater deflater;
+        private final OutputStream out;
+        private TeeResponseBody teeBody;
+        private final List<String> tags;
+
+        private Editor(String key, DiskBasedCache.Editor editor, boolean compressed, List<String> tags) {
+            this.key = key;
+            this.tags = tags;
+            this.editor = editor;
+            this.deflater = compressed ? new Deflater() : null;
+            this.out = compressed ? new DeflaterOutputStream(editor.newOutputStream(), deflater) : editor.newOutputStream();
+        }
+
+        /**
+         * 读取返回的body时同时写入缓存
+         *
+         * @param body 网络返回的body
+         * @return 用来解析的body
+         */
+        public ResponseBody tee(ResponseBody body) {
+            teeBody = new TeeResponseBody(body, out);
+            return teeBody;
+        }
+
+        /**
+         * 解析成功后提交，只有可以缓存的结果才会保存
+         *
+         * @param object 解析的结果
+         */
+        public void commit(Object object) {
+            if (!chechCanSave(object)) {
+                abort();
+                return;
+            }
+            commit();
+        }
+
+        /**
+         * 不检查解析结果直接提交，用于预加载等不解析响应体的场景，调用前需要{@link #tee(ResponseBody)}
+         */
+        public void commit() {
+            try {
+                if (teeBody == null || !teeBody.finish()) {
+                    abort();
+                    return;
+                }
+                if (deflater != null) {
+                    ((DeflaterOutputStream) out).finish();
+                    deflater.end();
+                }
+            } catch (IOException e) {
+                EALog.e(e, "easycache read body failed");
+                abort();
+                return;
+            }
+            if (isInitialized()) {
+                commitEntry();
+                return;
+            }
+            EasyExecutor.getThreadExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    awaitInitialized();
+                    commitEntry();
+                }
+            });
+        }
+
+        private void commitEntry() {
+            if (editor.commit()) {
+                MemoryTierCache memoryCache = getMemoryCache();
+                if (memoryCache != null) {
+                    memoryCache.evict(key);
+                }
+                tagIndex.put(key, tags);
+                onEntryChanged(key);
+            }
+        }
+
+        /**
+         * 解析失败时放弃写入，原来的缓存不受影响
+         */
+        public void abort() {
+            if (deflater != null) {
+                deflater.end();
+            }
+            editor.abort();
+        }
+    }
+
+    public static class Builder {
+        private final Context context;
+        private boolean concurrent;
+        private int memoryCacheSize;
+        private boolean asyncInitialize;
+        private int parsedObjectCacheSize;
+        private final Map<Type, ParsedObjectCache.Copier<?>> parsedTypes = new HashMap<>();
+        private long maxSize = DEFAULT_DISK_USAGE_BYTES;
+        private int maxEntries = Integer.MAX_VALUE;
+        private boolean compress;
+        private int compressThreshold = DEFAULT_COMPRESS_THRESHOLD;
+        private KeyHasher keyHasher = new Murmur3KeyHasher();
+        private CacheKeyStrategy keyStrategy = new DefaultCacheKeyStrategy();
+        private CacheMetrics metrics = CacheMetrics.NONE;
+
+        public Builder(Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        /**
+         * @param concurrent true 不同key的读写互不阻塞
+         */
+        public Builder setConcurrent(boolean concurrent) {
+            this.concurrent = concurrent;
+            return this;
+        }
+
+        /**
+         * 在磁盘缓存前加一层内存缓存，0表示不使用
+         *
+         * @param memoryCacheSize 内存缓存大小，单位byte
+         */
+        public Builder setMemoryCacheSize(int memoryCacheSize) {
+            this.memoryCacheSize = memoryCacheSize;
+            return this;
+        }
+
+        /**
+         * 在后台线程初始化，只有读写缓存的请求才会等待初始化完成
+         *
+         * @param asyncInitialize true 异步初始化
+         */
+        public Builder setAsyncInitialize(boolean asyncInitialize) {
+            this.asyncInitialize = asyncInitialize;
+            return this;
+        }
+
+        /**
+         * 缓存解析后的对象，缓存命中时不再解析，0表示不使用。
+         * 只缓存{@link #registerParsedType}注册过的类型
+         *
+         * @param parsedObjectCacheSize 最多缓存多少个key
+         */
+        public Builder setParsedObjectCacheSize(int parsedObjectCacheSize) {
+            this.parsedObjectCacheSize = parsedObjectCacheSize;
+            return this;
+        }
+
+        /**
+         * 注册可以缓存解析结果的类型
+         *
+         * @param type   解析的类型，和请求的responseType相同
+         * @param copier 复制对象，不可变的类型用{@link ParsedObjectCache#IMMUTABLE}
+         */
+        public Builder registerParsedType(Type type, ParsedObjectCache.Copier<?> copier) {
+            this.parsedTypes.put(type, copier);
+            return this;
+        }
+
+        /**
+         * 磁盘缓存的最大字节数，超过后在后台删除，先删过期的再删最久没用的
+         *
+         * @param maxSize 单位byte，默认5M
+         */
+        public Builder setMaxSize(long maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * 磁盘缓存最多保存多少条
+         *
+         * @param maxEntries 默认不限制
+         */
+        public Builder setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * 压缩缓存的数据，json一般可以压缩到1/5以下，同样的空间可以保存更多缓存
+         *
+         * @param compress true 压缩
+         */
+        public Builder setCompress(boolean compress) {
+            this.compress = compress;
+            return this;
+        }
+
+        /**
+         * 小于这个大小的数据不压缩，默认1K
+         *
+         * @param compressThreshold 单位byte
+         */
+        public Builder setCompressThreshold(int compressThreshold) {
+            this.compressThreshold = compressThreshold;
+            return this;
+        }
+
+        /**
+         * 缓存key转换成文件名的算法，更换后之前保存的缓存会在初始化时改名。
+         * 从旧版本升级时缓存文件的格式不同，之前的缓存会在初始化时删除，和用哪个算法无关
+         *
+         * @param keyHasher 默认{@link Murmur3KeyHasher}
+         */
+        public Builder setKeyHasher(KeyHasher keyHasher) {
+            this.keyHasher = keyHasher;
+            return this;
+        }
+
+        /**
+         * 缓存key的生成方式，默认{@link DefaultCacheKeyStrategy}，不区分请求头。
+         * 同一个Request只计算一次，结果必须只由Request决定
+         */
+        public Builder setCacheKeyStrategy(CacheKeyStrategy keyStrategy) {
+            this.keyStrategy = keyStrategy;
+            return this;
+        }
+
+        /**
+         * 缓存的统计，默认不统计，可以用{@link CountingCacheMetrics}
+         */
+        public Builder setMetrics(CacheMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        BatchCache createCache() {
+            DiskBasedCache diskCache = new DiskBasedCache(cacheDirectory(), DEFAULT_DISK_USAGE_BYTES, concurrent, keyHasher);
+            diskCache.setMaxCacheSize(maxSize);
+            diskCache.setMaxEntries(maxEntries);
+            BatchCache cache = diskCache;
+            if (memoryCacheSize > 0) {
+                cache = new MemoryTierCache(cache, memoryCacheSize);
+            }
+            return cache;
+        }
+
+        private File cacheDirectory() {
+            return CacheUtils.getDiskCacheDir(context, "volleycache");
+        }
+
+        /**
+         * 缓存目录中的文件都会被当作缓存，标签索引放在目录旁边
+         */
+        File tagIndexFile() {
+            return new File(cacheDirectory().getParentFile(), "volleycache.tags");
+        }
+
+        public EasyHttpCache build() {
+            return new EasyHttpCache(this);
+        }
+    }
 }
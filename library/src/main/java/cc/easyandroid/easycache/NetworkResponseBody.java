@@ -0,0 +1,46 @@
+package cc.easyandroid.easycache;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * 网络返回的body，带上响应头，缓存时用来保存ETag、Last-Modified和Date
+ */
+public final class NetworkResponseBody extends ResponseBody {
+    private final ResponseBody delegate;
+    private final Headers headers;
+
+    public NetworkResponseBody(ResponseBody delegate, Headers headers) {
+        this.delegate = delegate;
+        this.headers = headers;
+    }
+
+    /**
+     * 网络返回的响应头
+     */
+    public Headers headers() {
+        return headers;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+        return delegate.source();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,153 @@
+package cc.easyandroid.easycache;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存解析后的对象，命中时不需要再用Gson解析缓存的数据。
+ * 按缓存的key和解析的Type保存，缓存写入、刷新、删除或清空时失效。
+ * <p>
+ * 只缓存用{@link EasyHttpCache.Builder#registerParsedType}注册过的Type，保存和返回的都是{@link Copier}复制的对象，
+ * 调用者修改拿到的对象不会影响缓存；不可变的类型用{@link #IMMUTABLE}，不做复制。
+ */
+public final class ParsedObjectCache {
+    /**
+     * 不可变的类型，直接共享同一个对象
+     */
+    public static final Copier<Object> IMMUTABLE = new Copier<Object>() {
+        @Override
+        public Object copy(Object object) {
+            return object;
+        }
+    };
+
+    /**
+     * key是缓存的key，同一个key可以解析成不同的Type，按访问顺序排列，超过maxEntries时删除最久没用的
+     */
+    private final LinkedHashMap<String, Objects> mObjects;
+    private final Map<Type, Copier<?>> mCopiers;
+    /**
+     * 每次失效都加一，解析期间有写入时不保存解析结果，guarded by this
+     */
+    private long mGeneration;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    ParsedObjectCache(final int maxEntries, Map<Type, Copier<?>> copiers) {
+        mObjects = new LinkedHashMap<String, Objects>(16, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Objects> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        mCopiers = new HashMap<>(copiers);
+    }
+
+    /**
+     * @return 这个Type是否注册过，没有注册的不缓存
+     */
+    boolean accepts(Type type) {
+        return mCopiers.containsKey(type);
+    }
+
+    /**
+     * 开始读取缓存前调用，传给{@link #put}
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * @return 复制的对象，没有或已经过期时返回null
+     */
+    Object get(String key, Type type) {
+        Object object;
+        synchronized (this) {
+            Objects objects = mObjects.get(key);
+            object = objects != null && objects.ttl >= System.currentTimeMillis() ? objects.byType.get(type) : null;
+        }
+        if (object == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+        mHitCount.incrementAndGet();
+        return copy(type, object);
+    }
+
+    /**
+     * 保存复制的对象，调用者之后修改object不会影响缓存
+     *
+     * @param generation 读取缓存前{@link #generation()}的值，之后有写入时不保存
+     */
+    void put(String key, Type type, Object object, long ttl, long generation) {
+        if (object == null || !accepts(type)) {
+            return;
+        }
+        Object copy = copy(type, object);
+        synchronized (this) {
+            if (generation == mGeneration) {
+                putLocked(key, type, copy, ttl);
+            }
+        }
+    }
+
+    private void putLocked(String key, Type type, Object object, long ttl) {
+        Objects objects = mObjects.get(key);
+        if (objects == null || objects.ttl != ttl) {
+            objects = new Objects(ttl);
+            mObjects.put(key, objects);
+        }
+        objects.byType.put(type, object);
+    }
+
+    /**
+     * 缓存的数据改变了，丢掉这个key的所有对象
+     */
+    synchronized void remove(String key) {
+        mGeneration++;
+        mObjects.remove(key);
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mObjects.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object copy(Type type, Object object) {
+        return ((Copier<Object>) mCopiers.get(type)).copy(object);
+    }
+
+    /**
+     * 命中的次数
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 没有命中需要解析的次数
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 复制解析后的对象，保存到缓存和从缓存取出时各调用一次
+     */
+    public interface Copier<T> {
+        T copy(T object);
+    }
+
+    private static final class Objects {
+        final long ttl;
+        final Map<Type, Object> byType = new HashMap<>();
+
+        Objects(long ttl) {
+            this.ttl = ttl;
+        }
+    }
+}
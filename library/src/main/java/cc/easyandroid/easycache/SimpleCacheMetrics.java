@@ -0,0 +1,38 @@
+package cc.easyandroid.easycache;
+
+/**
+ * 所有回调都是空实现，只需要部分回调时继承它
+ */
+public class SimpleCacheMetrics implements CacheMetrics {
+    @Override
+    public void onHit(String cache) {
+    }
+
+    @Override
+    public void onMiss(String cache) {
+    }
+
+    @Override
+    public void onExpired(String cache, boolean hard) {
+    }
+
+    @Override
+    public void onEvicted(String cache, int entries, long bytes) {
+    }
+
+    @Override
+    public void onRead(String cache, long bytes) {
+    }
+
+    @Override
+    public void onWritten(String cache, long bytes) {
+    }
+
+    @Override
+    public void onGetLatency(String cache, long nanos) {
+    }
+
+    @Override
+    public void onPutLatency(String cache, long nanos) {
+    }
+}
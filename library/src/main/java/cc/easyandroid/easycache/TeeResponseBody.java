@@ -0,0 +1,85 @@
+package cc.easyandroid.easycache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 读取响应体的同时把读到的字节写入缓存文件，不需要再保留一份完整的数据
+ */
+final class TeeResponseBody extends ResponseBody {
+    private final ResponseBody delegate;
+    private final OutputStream cacheStream;
+    private BufferedSource source;
+    /**
+     * 写缓存失败后不再写入，但不影响读取
+     */
+    private boolean cacheFailed;
+    private boolean exhausted;
+
+    TeeResponseBody(ResponseBody delegate, OutputStream cacheStream) {
+        this.delegate = delegate;
+        this.cacheStream = cacheStream;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+        if (source == null) {
+            source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read == -1) {
+                        exhausted = true;
+                    } else if (read > 0 && !cacheFailed) {
+                        try {
+                            sink.copyTo(cacheStream, sink.size() - read, read);
+                        } catch (IOException e) {
+                            cacheFailed = true;
+                        }
+                    }
+                    return read;
+                }
+            });
+        }
+        return source;
+    }
+
+    /**
+     * 读完解析时没有读到的剩余数据，保证缓存的是完整的响应体
+     *
+     * @return false 写缓存失败
+     */
+    boolean finish() throws IOException {
+        if (exhausted) {// string()读完后会关闭source
+            return !cacheFailed;
+        }
+        BufferedSource source = source();
+        Buffer buffer = new Buffer();
+        while (source.read(buffer, 8192) != -1) {
+            buffer.clear();
+        }
+        return !cacheFailed;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -25,14 +25,17 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -41,6 +44,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import cc.easyandroid.easycache.CacheMetrics;
+
 /**
  * A cache that uses a bounded amount of space on a filesystem. Each cache
  * entry has a string key and a fixed number of values. Each key must match
@@ -147,7 +152,7 @@ public final class DiskLruCache implements Closeable {
   private long maxSize;
   private final int valueCount;
   private long size = 0;
-  private Writer journalWriter;
+  private final JournalWriter journalWriter = new JournalWriter();
   private final LinkedHashMap<String, Entry> lruEntries =
       new LinkedHashMap<String, Entry>(0, 0.75f, true);
   private int redundantOpCount;
@@ -159,18 +164,26 @@ public final class DiskLruCache implements Closeable {
    */
   private long nextSequenceNumber = 0;
 
+  /** Receives the hits, misses, evictions and latencies of this cache. */
+  private volatile CacheMetrics metrics = CacheMetrics.NONE;
+
   /** This cache uses a single background thread to evict entries. */
   final ThreadPoolExecutor executorService =
       new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+  /** This cache uses a single background thread to append to the journal. */
+  final ThreadPoolExecutor journalExecutorService =
+      new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
   private final Callable<Void> cleanupCallable = new Callable<Void>() {
     @Override
 	public Void call() throws Exception {
       synchronized (DiskLruCache.this) {
-        if (journalWriter == null) {
+        if (!journalWriter.isOpen()) {
           return null; // Closed.
         }
         trimToSize();
-        if (journalRebuildRequired()) {
+        if (journalRebuildRequired() || journalWriter.hasFailed()) {
           rebuildJournal();
           redundantOpCount = 0;
         }
@@ -276,8 +289,7 @@ public final class DiskLruCache implements Closeable {
       if (reader.hasUnterminatedLine()) {
         rebuildJournal();
       } else {
-        journalWriter = new BufferedWriter(new OutputStreamWriter(
-            new FileOutputStream(journalFile, true), Util.US_ASCII));
+        journalWriter.open(new FileOutputStream(journalFile, true));
       }
     } finally {
       Util.closeQuietly(reader);
@@ -326,9 +338,19 @@ public final class DiskLruCache implements Closeable {
   /**
    * Computes the initial size and collects garbage as a part of opening the
    * cache. Dirty entries are assumed to be inconsistent and will be deleted.
+   * Dirty files are deleted even without a DIRTY line, which may not have been
+   * written with {@link Durability#NONE}.
    */
   private void processJournal() throws IOException {
     deleteIfExists(journalFileTmp);
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().endsWith(".tmp")) {
+          file.delete();
+        }
+      }
+    }
     for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ) {
       Entry entry = i.next();
       if (entry.currentEditor == null) {
@@ -351,12 +373,8 @@ public final class DiskLruCache implements Closeable {
    * current journal if it exists.
    */
   private synchronized void rebuildJournal() throws IOException {
-    if (journalWriter != null) {
-      journalWriter.close();
-    }
-
-    Writer writer = new BufferedWriter(
-        new OutputStreamWriter(new FileOutputStream(journalFileTmp), Util.US_ASCII));
+    FileOutputStream out = new FileOutputStream(journalFileTmp);
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, Util.US_ASCII));
     try {
       writer.write(MAGIC);
       writer.write("\n");
@@ -375,6 +393,10 @@ public final class DiskLruCache implements Closeable {
           writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
         }
       }
+      if (journalWriter.durability == Durability.SYNC) {
+        writer.flush();
+        out.getFD().sync();
+      }
     } finally {
       writer.close();
     }
@@ -385,8 +407,8 @@ public final class DiskLruCache implements Closeable {
     renameTo(journalFileTmp, journalFile, false);
     journalFileBackup.delete();
 
-    journalWriter = new BufferedWriter(
-        new OutputStreamWriter(new FileOutputStream(journalFile, true), Util.US_ASCII));
+    // The new journal already reflects the lines still queued for the old one.
+    journalWriter.open(new FileOutputStream(journalFile, true));
   }
 
   private static void deleteIfExists(File file) throws IOException {
@@ -408,46 +430,138 @@ public final class DiskLruCache implements Closeable {
    * Returns a snapshot of the entry named {@code key}, or null if it doesn't
    * exist is not currently readable. If a value is returned, it is moved to
    * the head of the LRU queue.
+   *
+   * <p>The files are opened without holding the cache lock, so snapshots of
+   * different keys open in parallel. If an edit is committed meanwhile, the
+   * streams may mix two edits and are opened again.
    */
-  public synchronized Snapshot get(String key) throws IOException {
-    checkNotClosed();
-    validateKey(key);
-    Entry entry = lruEntries.get(key);
-    if (entry == null) {
-      return null;
+  public Snapshot get(String key) throws IOException {
+    return getSnapshot(key, -1);
+  }
+
+  /**
+   * Like {@link #get(String)}, but only opens the file of the value at
+   * {@code index}. The snapshot's other streams are null, so closing that one
+   * stream releases everything the snapshot holds.
+   */
+  public Snapshot get(String key, int index) throws IOException {
+    if (index < 0 || index >= valueCount) {
+      throw new IllegalArgumentException("Expected index " + index + " to "
+          + "be greater than 0 and less than the maximum value count "
+          + "of " + valueCount);
     }
+    return getSnapshot(key, index);
+  }
 
-    if (!entry.readable) {
-      return null;
+  /** @param index the only value to open, or -1 for all of them. */
+  private Snapshot getSnapshot(String key, int index) throws IOException {
+    validateKey(key);
+    CacheMetrics metrics = this.metrics;
+    long startTime = System.nanoTime();
+    while (true) {
+      Entry entry;
+      long sequenceNumber;
+      synchronized (this) {
+        checkNotClosed();
+        entry = lruEntries.get(key);
+        if (entry == null || !entry.readable) {
+          metrics.onMiss(CacheMetrics.DISK_LRU);
+          return null;
+        }
+        sequenceNumber = entry.sequenceNumber;
+      }
+
+      // Open all streams eagerly to guarantee that we see a single published
+      // snapshot. If we opened streams lazily then the streams could come
+      // from different edits.
+      InputStream[] ins = new InputStream[valueCount];
+      try {
+        for (int i = 0; i < valueCount; i++) {
+          if (index == -1 || index == i) {
+            ins[i] = new FileInputStream(entry.getCleanFile(i));
+          }
+        }
+      } catch (FileNotFoundException e) {
+        // A file must have been deleted manually, or the entry was removed meanwhile.
+        closeAll(ins);
+        metrics.onMiss(CacheMetrics.DISK_LRU);
+        return null;
+      }
+
+      synchronized (this) {
+        if (lruEntries.get(key) != entry || entry.sequenceNumber != sequenceNumber) {
+          closeAll(ins);
+          continue; // Replaced while the files were opened.
+        }
+        redundantOpCount++;
+        journalWriter.append(READ + ' ' + key + '\n');
+        if (journalRebuildRequired()) {
+          executorService.submit(cleanupCallable);
+        }
+
+        long[] lengths = entry.lengths.clone();
+        metrics.onHit(CacheMetrics.DISK_LRU);
+        metrics.onRead(CacheMetrics.DISK_LRU, index == -1 ? sum(lengths) : lengths[index]);
+        metrics.onGetLatency(CacheMetrics.DISK_LRU, System.nanoTime() - startTime);
+        return new Snapshot(key, sequenceNumber, ins, lengths);
+      }
     }
+  }
 
-    // Open all streams eagerly to guarantee that we see a single published
-    // snapshot. If we opened streams lazily then the streams could come
-    // from different edits.
-    InputStream[] ins = new InputStream[valueCount];
-    try {
-      for (int i = 0; i < valueCount; i++) {
-        ins[i] = new FileInputStream(entry.getCleanFile(i));
+  /**
+   * Returns the string value at {@code index} of the entry named {@code key},
+   * or null if the entry is not readable. Unlike {@link #get} only that one
+   * file is opened, and the read is neither journaled nor moves the entry in
+   * the LRU queue, so small metadata values can be checked cheaply.
+   */
+  public String peekString(String key, int index) throws IOException {
+    validateKey(key);
+    File file;
+    synchronized (this) {
+      checkNotClosed();
+      Entry entry = lruEntries.get(key);
+      if (entry == null || !entry.readable) {
+        return null;
       }
+      file = entry.getCleanFile(index);
+    }
+    // Edits are renamed into place, so the file is either the old or the new value.
+    try {
+      return inputStreamToString(new FileInputStream(file));
     } catch (FileNotFoundException e) {
-      // A file must have been deleted manually!
-      for (int i = 0; i < valueCount; i++) {
-        if (ins[i] != null) {
-          Util.closeQuietly(ins[i]);
-        } else {
-          break;
-        }
+      return null; // Removed meanwhile.
+    }
+  }
+
+  /**
+   * Returns the keys of the readable entries, least recently used first.
+   */
+  public synchronized List<String> keys() {
+    checkNotClosed();
+    List<String> keys = new ArrayList<String>(lruEntries.size());
+    for (Entry entry : lruEntries.values()) {
+      if (entry.readable) {
+        keys.add(entry.key);
       }
-      return null;
     }
+    return keys;
+  }
 
-    redundantOpCount++;
-    journalWriter.append(READ + ' ' + key + '\n');
-    if (journalRebuildRequired()) {
-      executorService.submit(cleanupCallable);
+  private static long sum(long[] lengths) {
+    long sum = 0;
+    for (long length : lengths) {
+      sum += length;
     }
+    return sum;
+  }
 
-    return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths);
+  /** Closes every opened stream; a single-value snapshot leaves the other slots null. */
+  private static void closeAll(InputStream[] ins) {
+    for (InputStream in : ins) {
+      if (in != null) {
+        Util.closeQuietly(in);
+      }
+    }
   }
 
   /**
@@ -458,27 +572,41 @@ public final class DiskLruCache implements Closeable {
     return edit(key, ANY_SEQUENCE_NUMBER);
   }
 
-  private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
-    checkNotClosed();
+  private Editor edit(String key, long expectedSequenceNumber) throws IOException {
     validateKey(key);
-    Entry entry = lruEntries.get(key);
-    if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
-        || entry.sequenceNumber != expectedSequenceNumber)) {
-      return null; // Snapshot is stale.
-    }
-    if (entry == null) {
-      entry = new Entry(key);
-      lruEntries.put(key, entry);
-    } else if (entry.currentEditor != null) {
-      return null; // Another edit is in progress.
-    }
+    Editor editor;
+    long dirtyLine;
+    synchronized (this) {
+      checkNotClosed();
+      Entry entry = lruEntries.get(key);
+      if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
+          || entry.sequenceNumber != expectedSequenceNumber)) {
+        return null; // Snapshot is stale.
+      }
+      if (entry == null) {
+        entry = new Entry(key);
+        lruEntries.put(key, entry);
+      } else if (entry.currentEditor != null) {
+        return null; // Another edit is in progress.
+      }
 
-    Editor editor = new Editor(entry);
-    entry.currentEditor = editor;
+      editor = new Editor(entry);
+      entry.currentEditor = editor;
+      dirtyLine = journalWriter.append(DIRTY + ' ' + key + '\n');
+    }
 
-    // Flush the journal before creating files to prevent file leaks.
-    journalWriter.write(DIRTY + ' ' + key + '\n');
-    journalWriter.flush();
+    // Flush the journal before creating files to prevent file leaks. Other
+    // keys are not blocked while this edit waits for the writer thread.
+    if (journalWriter.durability == Durability.NONE) {
+      return editor;
+    }
+    try {
+      journalWriter.awaitWritten(dirtyLine);
+    } catch (IOException e) {
+      editor.abortUnlessCommitted();
+      executorService.submit(cleanupCallable);
+      throw e;
+    }
     return editor;
   }
 
@@ -504,6 +632,51 @@ public final class DiskLruCache implements Closeable {
     executorService.submit(cleanupCallable);
   }
 
+  /**
+   * Changes how hard the journal tries to survive a crash. The default is
+   * {@link Durability#FLUSH}.
+   */
+  public void setDurability(Durability durability) {
+    if (durability == null) {
+      throw new NullPointerException("durability == null");
+    }
+    journalWriter.durability = durability;
+  }
+
+  /**
+   * Sets the metrics receiving the hits, misses, evictions and latencies of
+   * this cache, reported as {@link CacheMetrics#DISK_LRU}. Bytes read are the
+   * lengths of the returned snapshots, whether or not they are read fully.
+   */
+  public void setMetrics(CacheMetrics metrics) {
+    this.metrics = metrics != null ? metrics : CacheMetrics.NONE;
+  }
+
+  /** Returns how hard the journal tries to survive a crash. */
+  public Durability getDurability() {
+    return journalWriter.durability;
+  }
+
+  /**
+   * Collects the journal lines of up to {@code delayMillis} and writes them
+   * with a single flush, or sooner once {@code maxLines} lines are pending.
+   * Lines still pending when the process dies are lost, so the entries they
+   * describe fall back to their previous state. Edits waiting for their DIRTY
+   * or CLEAN line skip the delay, so unless the durability is
+   * {@link Durability#NONE} the delay only batches READ and REMOVE lines and
+   * the lines of concurrent edits. The default of no delay writes every line
+   * as soon as the writer thread gets to it.
+   */
+  public void setGroupCommit(long delayMillis, int maxLines) {
+    if (delayMillis < 0) {
+      throw new IllegalArgumentException("delayMillis < 0");
+    }
+    if (maxLines <= 0) {
+      throw new IllegalArgumentException("maxLines <= 0");
+    }
+    journalWriter.setGroupCommit(delayMillis, maxLines);
+  }
+
   /**
    * Returns the number of bytes currently being used to store the values in
    * this cache. This may be greater than the max size if a background
@@ -513,7 +686,15 @@ public final class DiskLruCache implements Closeable {
     return size;
   }
 
-  private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+  /**
+   * Publishes or discards the files of {@code editor} and queues the journal
+   * line recording it.
+   *
+   * @return the ticket of the CLEAN line of a successful edit, to pass to
+   *     {@link JournalWriter#awaitWritten}, or 0 if there is nothing to wait
+   *     for.
+   */
+  private synchronized long completeEdit(Editor editor, boolean success) throws IOException {
     Entry entry = editor.entry;
     if (entry.currentEditor != editor) {
       throw new IllegalStateException();
@@ -528,11 +709,12 @@ public final class DiskLruCache implements Closeable {
         }
         if (!entry.getDirtyFile(i).exists()) {
           editor.abort();
-          return;
+          return 0;
         }
       }
     }
 
+    long written = 0;
     for (int i = 0; i < valueCount; i++) {
       File dirty = entry.getDirtyFile(i);
       if (success) {
@@ -543,6 +725,7 @@ public final class DiskLruCache implements Closeable {
           long newLength = clean.length();
           entry.lengths[i] = newLength;
           size = size - oldLength + newLength;
+          written += newLength;
         }
       } else {
         deleteIfExists(dirty);
@@ -551,21 +734,25 @@ public final class DiskLruCache implements Closeable {
 
     redundantOpCount++;
     entry.currentEditor = null;
+    long cleanLine = 0;
     if (entry.readable | success) {
       entry.readable = true;
-      journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+      long line = journalWriter.append(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
       if (success) {
+        cleanLine = line;
         entry.sequenceNumber = nextSequenceNumber++;
+        metrics.onWritten(CacheMetrics.DISK_LRU, written);
+        metrics.onPutLatency(CacheMetrics.DISK_LRU, System.nanoTime() - editor.startTime);
       }
     } else {
       lruEntries.remove(entry.key);
-      journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+      journalWriter.append(REMOVE + ' ' + entry.key + '\n');
     }
-    journalWriter.flush();
 
     if (size > maxSize || journalRebuildRequired()) {
       executorService.submit(cleanupCallable);
     }
+    return cleanLine;
   }
 
   /**
@@ -612,13 +799,28 @@ public final class DiskLruCache implements Closeable {
     return true;
   }
 
+  /**
+   * Drops the entry of {@code snapshot} unless it was edited since the
+   * snapshot was created or is being edited now.
+   *
+   * @return true if the entry was removed.
+   */
+  public synchronized boolean removeIfUnchanged(Snapshot snapshot) throws IOException {
+    checkNotClosed();
+    Entry entry = lruEntries.get(snapshot.key);
+    if (entry == null || entry.sequenceNumber != snapshot.sequenceNumber) {
+      return false;
+    }
+    return remove(snapshot.key);
+  }
+
   /** Returns true if this cache has been closed. */
   public synchronized boolean isClosed() {
-    return journalWriter == null;
+    return !journalWriter.isOpen();
   }
 
   private void checkNotClosed() {
-    if (journalWriter == null) {
+    if (!journalWriter.isOpen()) {
       throw new IllegalStateException("cache is closed");
     }
   }
@@ -633,7 +835,7 @@ public final class DiskLruCache implements Closeable {
   /** Closes this cache. Stored values will remain on the filesystem. */
   @Override
 public synchronized void close() throws IOException {
-    if (journalWriter == null) {
+    if (!journalWriter.isOpen()) {
       return; // Already closed.
     }
     for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
@@ -643,13 +845,21 @@ public synchronized void close() throws IOException {
     }
     trimToSize();
     journalWriter.close();
-    journalWriter = null;
   }
 
   private void trimToSize() throws IOException {
+    int evicted = 0;
+    long evictedBytes = 0;
     while (size > maxSize) {
       Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
-      remove(toEvict.getKey());
+      long bytes = sum(toEvict.getValue().lengths);
+      if (remove(toEvict.getKey())) {
+        evicted++;
+        evictedBytes += bytes;
+      }
+    }
+    if (evicted > 0) {
+      metrics.onEvicted(CacheMetrics.DISK_LRU, evicted, evictedBytes);
     }
   }
 
@@ -675,6 +885,28 @@ public synchronized void close() throws IOException {
     return Util.readFully(new InputStreamReader(in, Util.UTF_8));
   }
 
+  /** How hard the journal tries to survive a crash, from fastest to safest. */
+  public enum Durability {
+    /**
+     * Edits don't wait for their DIRTY or CLEAN line to be written. A crash
+     * may lose the pending journal lines, which drops or reverts the entries
+     * they describe, even after commit returned. Dirty files left behind are
+     * deleted on the next open.
+     */
+    NONE,
+    /**
+     * Edits wait for their DIRTY line, and commit waits for the CLEAN line,
+     * to be flushed to the operating system. Once commit returns, only a
+     * power loss may lose the entry.
+     */
+    FLUSH,
+    /**
+     * Like {@link #FLUSH}, and also syncs the journal after every batch and
+     * the value files before they are committed.
+     */
+    SYNC
+  }
+
   /** A snapshot of the values for an entry. */
   public final class Snapshot implements Closeable {
     private final String key;
@@ -698,7 +930,10 @@ public synchronized void close() throws IOException {
       return DiskLruCache.this.edit(key, sequenceNumber);
     }
 
-    /** Returns the unbuffered stream with the value for {@code index}. */
+    /**
+     * Returns the unbuffered stream with the value for {@code index}, or null
+     * if the snapshot was opened for another single value.
+     */
     public InputStream getInputStream(int index) {
       return ins[index];
     }
@@ -708,6 +943,15 @@ public synchronized void close() throws IOException {
       return inputStreamToString(getInputStream(index));
     }
 
+    /**
+     * Returns the channel of the file with the value for {@code index}. It
+     * reads the value of this snapshot even if the entry is edited later, and
+     * is closed with the snapshot.
+     */
+    public FileChannel getChannel(int index) {
+      return ((FileInputStream) ins[index]).getChannel();
+    }
+
     /** Returns the byte length of the value for {@code index}. */
     public long getLength(int index) {
       return lengths[index];
@@ -734,6 +978,8 @@ public synchronized void close() throws IOException {
     private final boolean[] written;
     private boolean hasErrors;
     private boolean committed;
+    /** When the edit started, for the put latency. */
+    private final long startTime = System.nanoTime();
 
     private Editor(Entry entry) {
       this.entry = entry;
@@ -789,22 +1035,23 @@ public synchronized void close() throws IOException {
         if (!entry.readable) {
           written[index] = true;
         }
-        File dirtyFile = entry.getDirtyFile(index);
-        FileOutputStream outputStream;
+      }
+      // Only this editor touches its dirty files, no need to hold the cache lock.
+      File dirtyFile = entry.getDirtyFile(index);
+      FileOutputStream outputStream;
+      try {
+        outputStream = new FileOutputStream(dirtyFile);
+      } catch (FileNotFoundException e) {
+        // Attempt to recreate the cache directory.
+        directory.mkdirs();
         try {
           outputStream = new FileOutputStream(dirtyFile);
-        } catch (FileNotFoundException e) {
-          // Attempt to recreate the cache directory.
-          directory.mkdirs();
-          try {
-            outputStream = new FileOutputStream(dirtyFile);
-          } catch (FileNotFoundException e2) {
-            // We are unable to recover. Silently eat the writes.
-            return NULL_OUTPUT_STREAM;
-          }
+        } catch (FileNotFoundException e2) {
+          // We are unable to recover. Silently eat the writes.
+          return NULL_OUTPUT_STREAM;
         }
-        return new FaultHidingOutputStream(outputStream);
       }
+      return new FaultHidingOutputStream(outputStream);
     }
 
     /** Sets the value at {@code index} to {@code value}. */
@@ -820,16 +1067,24 @@ public synchronized void close() throws IOException {
 
     /**
      * Commits this edit so it is visible to readers.  This releases the
-     * edit lock so another edit may be started on the same key.
+     * edit lock so another edit may be started on the same key. Unless the
+     * durability is {@link Durability#NONE}, this returns once the journal
+     * line publishing the edit has been flushed.
      */
     public void commit() throws IOException {
+      long cleanLine = 0;
       if (hasErrors) {
         completeEdit(this, false);
         remove(entry.key); // The previous entry is stale.
       } else {
-        completeEdit(this, true);
+        cleanLine = completeEdit(this, true);
       }
       committed = true;
+      // Readers already see the entry. Wait outside the cache lock so other
+      // keys are not blocked while the writer thread flushes.
+      if (cleanLine != 0 && journalWriter.durability != Durability.NONE) {
+        journalWriter.awaitWritten(cleanLine);
+      }
     }
 
     /**
@@ -872,6 +1127,10 @@ public synchronized void close() throws IOException {
 
       @Override public void close() {
         try {
+          if (journalWriter.durability == Durability.SYNC && out instanceof FileOutputStream) {
+            out.flush();
+            ((FileOutputStream) out).getFD().sync();
+          }
           out.close();
         } catch (IOException e) {
           hasErrors = true;
@@ -888,6 +1147,191 @@ public synchronized void close() throws IOException {
     }
   }
 
+  /**
+   * Appends lines to the journal on {@link #journalExecutorService}. Lines are
+   * queued while holding the cache lock, so they are written in the order of
+   * the operations. The writer thread collects the lines queued within the
+   * group commit delay and writes them with a single flush. It never takes the
+   * cache lock.
+   */
+  private final class JournalWriter implements Runnable {
+    /** Guards the queue. The monitor of this writer guards the file. */
+    private final Object queueLock = new Object();
+    private final ArrayList<String> pending = new ArrayList<String>(); // guarded by queueLock
+    private boolean scheduled; // guarded by queueLock
+    /** Number of lines queued and written since the cache was opened. */
+    private long queuedCount; // guarded by queueLock
+    private long writtenCount; // guarded by queueLock
+    private IOException failure; // guarded by queueLock
+    /** Time the oldest pending line was queued at. */
+    private long firstPendingAt; // guarded by queueLock
+    /** Set by a thread waiting for its line, to flush without waiting for the delay. */
+    private boolean urgent; // guarded by queueLock
+    private long groupCommitDelay; // guarded by queueLock
+    private int groupCommitLines = 1; // guarded by queueLock
+    private volatile Durability durability = Durability.FLUSH;
+    private FileOutputStream out; // guarded by this
+    private Writer writer; // guarded by this
+    private volatile boolean open;
+
+    /**
+     * Starts writing to {@code newOut}, closing the previous journal and
+     * dropping the lines queued for it.
+     */
+    synchronized void open(FileOutputStream newOut) throws IOException {
+      Writer oldWriter = writer;
+      out = newOut;
+      writer = new BufferedWriter(new OutputStreamWriter(newOut, Util.US_ASCII));
+      open = true;
+      synchronized (queueLock) {
+        pending.clear();
+        writtenCount = queuedCount;
+        failure = null;
+        queueLock.notifyAll();
+      }
+      if (oldWriter != null) {
+        oldWriter.close();
+      }
+    }
+
+    boolean isOpen() {
+      return open;
+    }
+
+    boolean hasFailed() {
+      synchronized (queueLock) {
+        return failure != null;
+      }
+    }
+
+    void setGroupCommit(long delayMillis, int maxLines) {
+      synchronized (queueLock) {
+        groupCommitDelay = delayMillis;
+        groupCommitLines = maxLines;
+        queueLock.notifyAll();
+      }
+    }
+
+    /**
+     * Queues {@code line} for the writer thread.
+     *
+     * @return the ticket to pass to {@link #awaitWritten}.
+     */
+    long append(String line) {
+      synchronized (queueLock) {
+        if (pending.isEmpty()) {
+          firstPendingAt = System.currentTimeMillis();
+        }
+        pending.add(line);
+        if (!scheduled) {
+          scheduled = true;
+          journalExecutorService.execute(this);
+        } else if (pending.size() >= groupCommitLines) {
+          queueLock.notifyAll();
+        }
+        return ++queuedCount;
+      }
+    }
+
+    /** Blocks until the line of {@code ticket} has been flushed. */
+    void awaitWritten(long ticket) throws IOException {
+      synchronized (queueLock) {
+        if (writtenCount < ticket) {
+          urgent = true;
+          queueLock.notifyAll();
+        }
+        while (writtenCount < ticket) {
+          try {
+            queueLock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+        if (failure != null) {
+          IOException e = new IOException("journal write failed");
+          e.initCause(failure);
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      synchronized (queueLock) {
+        while (!urgent && pending.size() < groupCommitLines) {
+          long remaining = firstPendingAt + groupCommitDelay - System.currentTimeMillis();
+          if (remaining <= 0) {
+            break;
+          }
+          try {
+            queueLock.wait(remaining);
+          } catch (InterruptedException e) {
+            break;
+          }
+        }
+      }
+      try {
+        flush();
+      } catch (IOException ignored) {
+        // Kept in failure until the journal is rebuilt.
+      }
+    }
+
+    /** Writes the queued lines with a single flush. */
+    synchronized void flush() throws IOException {
+      List<String> batch;
+      long batchEnd;
+      synchronized (queueLock) {
+        batch = new ArrayList<String>(pending);
+        pending.clear();
+        scheduled = false;
+        urgent = false;
+        batchEnd = queuedCount;
+      }
+      IOException error = null;
+      try {
+        if (writer != null && !batch.isEmpty()) {
+          for (int i = 0; i < batch.size(); i++) {
+            writer.write(batch.get(i));
+          }
+          writer.flush();
+          if (durability == Durability.SYNC) {
+            out.getFD().sync();
+          }
+        }
+      } catch (IOException e) {
+        error = e;
+      }
+      synchronized (queueLock) {
+        if (error != null && failure == null) {
+          failure = error;
+        }
+        if (batchEnd > writtenCount) {
+          writtenCount = batchEnd;
+        }
+        queueLock.notifyAll();
+        if (failure != null) {
+          throw failure;
+        }
+      }
+    }
+
+    /** Writes the queued lines and closes the journal. */
+    synchronized void close() throws IOException {
+      open = false;
+      try {
+        flush();
+      } finally {
+        if (writer != null) {
+          writer.close();
+          writer = null;
+          out = null;
+        }
+      }
+    }
+  }
+
   private final class Entry {
     private final String key;
 
@@ -0,0 +1,206 @@
+package cc.easyandroid.easycache.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 紧凑的二进制格式，支持null、基本类型的包装类、String、byte[]和由它们组成的List。
+ * 每个值一个字节的类型标记，整数用zigzag变长编码，不需要反射，比ObjectOutputStream快，结果也小得多。
+ * 读出的List是ArrayList
+ */
+public final class BinarySerializer<T> implements CacheSerializer<T> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final BinarySerializer<Object> INSTANCE = new BinarySerializer<>();
+
+    /**
+     * 长度是从文件中读出的，不能直接按它分配内存，超过这个大小的边读边扩容，数据损坏时读到结尾就会失败
+     */
+    private static final int MAX_PRESIZE = 8192;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TRUE = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_BYTE = 3;
+    private static final int TAG_SHORT = 4;
+    private static final int TAG_CHAR = 5;
+    private static final int TAG_INT = 6;
+    private static final int TAG_LONG = 7;
+    private static final int TAG_FLOAT = 8;
+    private static final int TAG_DOUBLE = 9;
+    private static final int TAG_STRING = 10;
+    private static final int TAG_BYTES = 11;
+    private static final int TAG_LIST = 12;
+
+    private BinarySerializer() {
+    }
+
+    /**
+     * 没有状态，所有类型共用一个实例
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BinarySerializer<T> get() {
+        return (BinarySerializer<T>) INSTANCE;
+    }
+
+    @Override
+    public void write(T value, OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        writeValue(dos, value);
+        dos.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T read(InputStream in) throws IOException {
+        return (T) readValue(new DataInputStream(in));
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(UTF_8);
+            out.writeByte(TAG_STRING);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            writeVarint(out, zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            writeVarint(out, zigzag((Long) value));
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TAG_SHORT);
+            writeVarint(out, zigzag((Short) value));
+        } else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(TAG_CHAR);
+            out.writeChar((Character) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(TAG_BYTES);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            writeVarint(out, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                writeValue(out, list.get(i));
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported type: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_SHORT:
+                return (short) unzigzag(readVarint(in));
+            case TAG_CHAR:
+                return in.readChar();
+            case TAG_INT:
+                return (int) unzigzag(readVarint(in));
+            case TAG_LONG:
+                return unzigzag(readVarint(in));
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_STRING:
+                return new String(readBytes(in), UTF_8);
+            case TAG_BYTES:
+                return readBytes(in);
+            case TAG_LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(Math.min(size, MAX_PRESIZE));
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            default:
+                throw new IOException("unknown tag: " + tag);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = readLength(in);
+        if (length <= MAX_PRESIZE) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_PRESIZE);
+        byte[] buffer = new byte[MAX_PRESIZE];
+        while (length > 0) {
+            int count = Math.min(length, buffer.length);
+            in.readFully(buffer, 0, count);
+            out.write(buffer, 0, count);
+            length -= count;
+        }
+        return out.toByteArray();
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("bad length: " + length);
+        }
+        return (int) length;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
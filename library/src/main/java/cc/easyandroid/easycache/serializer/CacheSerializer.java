@@ -0,0 +1,15 @@
+package cc.easyandroid.easycache.serializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 把对象写入缓存和从缓存读出，配合{@link cc.easyandroid.easycache.EasyCacheUtils#put(String, Object, CacheSerializer)}使用。
+ * 流由调用者打开和关闭，实现中不要关闭
+ */
+public interface CacheSerializer<T> {
+    void write(T value, OutputStream out) throws IOException;
+
+    T read(InputStream in) throws IOException;
+}
@@ -0,0 +1,44 @@
+package cc.easyandroid.easycache.serializer;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * 用Gson的TypeAdapter边读边解析，边写边输出，不生成中间的json字符串
+ */
+public final class GsonSerializer<T> implements CacheSerializer<T> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final TypeAdapter<T> adapter;
+
+    @SuppressWarnings("unchecked")
+    public GsonSerializer(Gson gson, Type type) {
+        this.adapter = (TypeAdapter<T>) gson.getAdapter(TypeToken.get(type));
+    }
+
+    public GsonSerializer(Class<T> type) {
+        this(new Gson(), type);
+    }
+
+    @Override
+    public void write(T value, OutputStream out) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, UTF_8));
+        adapter.write(writer, value);
+        writer.flush();
+    }
+
+    @Override
+    public T read(InputStream in) throws IOException {
+        return adapter.read(new JsonReader(new InputStreamReader(in, UTF_8)));
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cc.easyandroid.easycache.volleycache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link Cache} that can also read and write several entries at once, read the metadata
+ * of an entry without its data and extend the TTLs of a revalidated entry in place.
+ */
+public interface BatchCache extends Cache {
+	/**
+	 * Retrieves several entries at once.
+	 * 
+	 * @param keys
+	 *            Cache keys
+	 * @return The entries of the keys that are in the cache, by key
+	 */
+	public Map<String, Entry> getAll(Collection<String> keys);
+
+	/**
+	 * Adds or replaces several entries at once.
+	 * 
+	 * @param entries
+	 *            Entries by cache key
+	 */
+	public void putAll(Map<String, Entry> entries);
+
+	/**
+	 * Retrieves the metadata of an entry without reading its data.
+	 * 
+	 * @param key
+	 *            Cache key
+	 * @return An {@link Entry} whose data is null, or null in the event of a cache miss
+	 */
+	public Entry getMetadata(String key);
+
+	/**
+	 * Extends the TTLs of an entry that was revalidated, without rewriting its data.
+	 * 
+	 * @param key
+	 *            Cache key
+	 * @param softTtl
+	 *            The new soft TTL
+	 * @param ttl
+	 *            The new TTL
+	 * @return True if the entry exists and was updated
+	 */
+	public boolean refresh(String key, long softTtl, long ttl);
+}
@@ -93,6 +93,9 @@ public interface Cache {
 
 		/** Soft TTL for this record. */
 		public long softTtl;
+
+		/** True if the data is deflate compressed, the cache stores it as is. */
+		public boolean compressed;
 		/**
 		 * Immutable response headers as received from server; must be non-null.
 		 */
@@ -18,6 +18,13 @@ package cc.easyandroid.easycache.volleycache;
 
 import android.os.SystemClock;
 
+import cc.easyandroid.easycache.CacheMetrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -26,47 +33,202 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * Cache implementation that caches files directly onto the hard disk in the specified
  * directory. The default disk usage size is 5MB, but is configurable.
+ *
+ * <p>The index is a {@link ConcurrentHashMap}, so lookups never block. File access is
+ * guarded by read/write locks striped by key: with a single stripe (the default) every
+ * write is serialized like the original global lock, while the concurrent mode lets reads
+ * and writes of different keys run in parallel. LRU order is approximated with an access
+ * clock, and pruning evicts the least recently used entries in one batch.
+ *
+ * <p>Files are named by a {@link KeyHasher}. When the hasher is swapped, the startup scan
+ * renames the files of the previous one, so their entries survive. Files written by an
+ * older version of the library fail the magic check and are deleted instead: upgrading
+ * from a version without checksums starts with an empty cache.
  */
-public class DiskBasedCache implements Cache {
+public class DiskBasedCache implements BatchCache {
 
 	/** Map of the Key, CacheHeader pairs */
-	private final Map<String, CacheHeader> mEntries = new LinkedHashMap<String, CacheHeader>(16, .75f, true);
+	private final Map<String, CacheHeader> mEntries = new ConcurrentHashMap<String, CacheHeader>(16, .75f, CONCURRENT_LOCK_STRIPES);
 
 	/** Total amount of space currently used by the cache in bytes. */
-	private long mTotalSize = 0;
+	private final AtomicLong mTotalSize = new AtomicLong();
+
+	/** Logical clock stamped on every access, used to approximate the LRU order. */
+	private final AtomicLong mAccessClock = new AtomicLong();
+
+	/** Locks guarding the files of the keys hashed onto them. */
+	private final ReentrantReadWriteLock[] mLocks;
+
+	/** Set while a thread is pruning, other writers skip pruning instead of waiting. */
+	private final AtomicBoolean mPruning = new AtomicBoolean();
 
 	/** The root directory to use for the cache. */
 	private final File mRootDirectory;
 
+	/** Maps keys to the names of their files. */
+	private final KeyHasher mKeyHasher;
+
+	/**
+	 * Key owning each file name. Two keys whose names collide share a file, only the last
+	 * one written keeps its entry and may delete the file.
+	 */
+	private final ConcurrentMap<String, String> mFileOwners = new ConcurrentHashMap<String, String>(16, .75f, CONCURRENT_LOCK_STRIPES);
+
 	/** The maximum size of the cache in bytes. */
-	private final int mMaxCacheSizeInBytes;
+	private volatile long mMaxCacheSizeInBytes;
+
+	/** The maximum number of entries in the cache. */
+	private volatile int mMaxEntries = Integer.MAX_VALUE;
+
+	/** Set while a background prune is queued, so a burst of writes prunes once. */
+	private final AtomicBoolean mPruneScheduled = new AtomicBoolean();
 
 	/** Default maximum disk usage in bytes. */
 	private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
 
+	/** Number of lock stripes used in concurrent mode. */
+	private static final int CONCURRENT_LOCK_STRIPES = 16;
+
 	/** High water mark percentage for the cache */
 	private static final float HYSTERESIS_FACTOR = 0.9f;
 
+	/** Writers only prune inline once the background pruner falls this far behind. */
+	private static final float INLINE_PRUNE_FACTOR = 1.5f;
+
 	/** Magic number for current version of cache file format. */
-	private static final int CACHE_MAGIC = 0x20120504;
+	private static final int CACHE_MAGIC = 0x20120506;
+
+	/** Buffer size used to read headers while scanning, most headers fit into it. */
+	private static final int HEADER_BUFFER_SIZE = 512;
+
+	/** Magic number for current version of index file format. */
+	private static final int INDEX_MAGIC = 0x20161101;
+
+	/** Name of the file holding the headers of every entry, so startup needs a single read. */
+	static final String INDEX_FILE = "easycache.index";
+
+	/** Name of the file the index is written to before it replaces the previous one. */
+	static final String INDEX_FILE_TEMP = "easycache.index.tmp";
+
+	/** Suffix of the files that editors stream entries into before committing them. */
+	static final String TEMP_SUFFIX = ".tmp";
+
+	/** Temp files of the open editors, which a concurrent scan must not delete. */
+	private final Set<String> mOpenTempFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/** Makes the temp file names of concurrent writers of the same key unique. */
+	private final AtomicLong mTempSequence = new AtomicLong();
+
+	/** True to fsync every entry before it is renamed into place. */
+	private volatile boolean mSyncWrites;
+
+	/** Receives the hits, misses, evictions and latencies of this cache. */
+	private volatile CacheMetrics mMetrics = CacheMetrics.NONE;
+
+	/** Told about every key that leaves the cache other than through {@link #clear()}. */
+	private volatile RemovalListener mRemovalListener;
+
+	/** Number of threads reading and writing files for the batch operations. */
+	private static final int IO_THREADS = 4;
+
+	/** Runs the file I/O of the batch operations in parallel. */
+	private final ThreadPoolExecutor mIoExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	/** This cache uses a single background thread to write its index. */
+	final ThreadPoolExecutor executorService = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+	/** Set while an index write is queued, so a burst of changes is written once. */
+	private final AtomicBoolean mIndexWriteScheduled = new AtomicBoolean();
+
+	private final Runnable mWriteIndexRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mIndexWriteScheduled.set(false);
+			writeIndex();
+		}
+	};
+
+	private final Runnable mPruneRunnable = new Runnable() {
+		@Override
+		public void run() {
+			mPruneScheduled.set(false);
+			prune(0, 0);
+		}
+	};
+
+	/** Orders headers from the least to the most recently used. */
+	private static final Comparator<CacheHeader> ACCESS_ORDER = new Comparator<CacheHeader>() {
+		@Override
+		public int compare(CacheHeader lhs, CacheHeader rhs) {
+			return lhs.lastAccess < rhs.lastAccess ? -1 : (lhs.lastAccess == rhs.lastAccess ? 0 : 1);
+		}
+	};
 
 	/**
 	 * Constructs an instance of the DiskBasedCache at the specified directory.
 	 * @param rootDirectory The root directory of the cache.
 	 * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+	 * @param concurrent True to stripe the locks by key so different keys don't block each other.
+	 * @param keyHasher Maps keys to the names of their files. Files named by a different
+	 *                  hasher in the same directory are renamed on startup.
 	 */
-	public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+	public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes, boolean concurrent, KeyHasher keyHasher) {
 		mRootDirectory = rootDirectory;
+		mKeyHasher = keyHasher;
 		mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+		mIoExecutor.allowCoreThreadTimeOut(true);
+		mLocks = new ReentrantReadWriteLock[concurrent ? CONCURRENT_LOCK_STRIPES : 1];
+		for (int i = 0; i < mLocks.length; i++) {
+			mLocks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Constructs an instance of the DiskBasedCache at the specified directory, naming the
+	 * files with {@link Murmur3KeyHasher}.
+	 * @param rootDirectory The root directory of the cache.
+	 * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+	 * @param concurrent True to stripe the locks by key so different keys don't block each other.
+	 */
+	public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes, boolean concurrent) {
+		this(rootDirectory, maxCacheSizeInBytes, concurrent, new Murmur3KeyHasher());
+	}
+
+	/**
+	 * Constructs an instance of the DiskBasedCache at the specified directory.
+	 * @param rootDirectory The root directory of the cache.
+	 * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+	 */
+	public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+		this(rootDirectory, maxCacheSizeInBytes, false);
 	}
 
 	/**
@@ -77,78 +239,469 @@ public class DiskBasedCache implements Cache {
 		this(rootDirectory, DEFAULT_DISK_USAGE_BYTES);
 	}
 
+	/**
+	 * Sets the maximum size of the cache in bytes, pruning in the background if it shrank.
+	 */
+	public void setMaxCacheSize(long maxCacheSizeInBytes) {
+		mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+		schedulePrune();
+	}
+
+	/**
+	 * Sets the metrics receiving the hits, misses, evictions and latencies of this cache,
+	 * reported as {@link CacheMetrics#DISK}.
+	 */
+	public void setMetrics(CacheMetrics metrics) {
+		mMetrics = metrics != null ? metrics : CacheMetrics.NONE;
+	}
+
+	/**
+	 * Sets the listener told about every key that is removed, pruned, dropped because its
+	 * file is broken or displaced by a colliding key. {@link #clear()} doesn't report the
+	 * keys it drops. The listener is called with the key's lock held and must not call back
+	 * into this cache.
+	 */
+	public void setRemovalListener(RemovalListener listener) {
+		mRemovalListener = listener;
+	}
+
+	/**
+	 * Returns the maximum size of the cache in bytes.
+	 */
+	public long getMaxCacheSize() {
+		return mMaxCacheSizeInBytes;
+	}
+
+	/**
+	 * Sets the maximum number of entries, pruning in the background if it shrank.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		mMaxEntries = maxEntries;
+		schedulePrune();
+	}
+
+	/**
+	 * Returns the maximum number of entries.
+	 */
+	public int getMaxEntries() {
+		return mMaxEntries;
+	}
+
+	/**
+	 * Sets whether every entry is fsynced before it replaces the previous one. Entries are
+	 * always written to a temp file and renamed, so readers never see partial data; syncing
+	 * additionally keeps a power loss from leaving an empty file behind, at the cost of
+	 * slower writes. Such a file fails its checksum and is dropped on read either way.
+	 */
+	public void setSyncWrites(boolean syncWrites) {
+		mSyncWrites = syncWrites;
+	}
+
 	/**
 	 * Clears the cache. Deletes all cached files from disk.
 	 */
 	@Override
-	public synchronized void clear() {
-		File[] files = mRootDirectory.listFiles();
-		if (files != null) {
-			for (File file : files) {
-				file.delete();
+	public void clear() {
+		lockAll();
+		try {
+			File[] files = mRootDirectory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
 			}
+			mEntries.clear();
+			mTotalSize.set(0);
+			mFileOwners.clear();
+			scheduleIndexWrite();
+			VolleyLog.d("Cache cleared.");
+		} finally {
+			unlockAll();
 		}
-		mEntries.clear();
-		mTotalSize = 0;
-		VolleyLog.d("Cache cleared.");
 	}
 
 	/**
 	 * Returns the cache entry with the specified key if it exists, null otherwise.
 	 */
 	@Override
-	public synchronized Entry get(String key) {
+	public Entry get(String key) {
+		CacheMetrics metrics = mMetrics;
+		long startTime = System.nanoTime();
+		Entry entry = null;
+		try {
+			entry = readLocked(key);
+			return entry;
+		} finally {
+			// every outcome is timed, so slow misses and broken files show up in the latency too.
+			if (entry != null) {
+				metrics.onHit(CacheMetrics.DISK);
+			} else {
+				metrics.onMiss(CacheMetrics.DISK);
+			}
+			metrics.onGetLatency(CacheMetrics.DISK, System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Reads the entry of a key under its read lock, removing the file if it is broken.
+	 * @return The entry, or null in the event of a cache miss.
+	 */
+	private Entry readLocked(String key) {
+		// a miss never touches a lock.
+		if (!mEntries.containsKey(key)) {
+			return null;
+		}
+		Lock lock = lockFor(key).readLock();
+		lock.lock();
+		try {
+			return readEntry(key);
+		} catch (IOException e) {
+			VolleyLog.d("%s: %s", getFileForKey(key).getAbsolutePath(), e.toString());
+		} finally {
+			lock.unlock();
+		}
+		// the read lock can't be upgraded, remove the broken entry once it is released.
+		remove(key);
+		return null;
+	}
+
+	/**
+	 * Reads the entry of a key from its file, the caller must hold the key's read lock.
+	 * @return The entry, or null if it was removed meanwhile.
+	 * @throws IOException if the file is broken and the entry should be removed.
+	 */
+	private Entry readEntry(String key) throws IOException {
 		CacheHeader entry = mEntries.get(key);
-		// if the entry does not exist, return.
+		// the entry may have been removed while we were waiting.
 		if (entry == null) {
 			return null;
 		}
+		entry.lastAccess = mAccessClock.incrementAndGet();
+		RandomAccessFile raf = new RandomAccessFile(getFileForKey(key), "r");
+		try {
+			long fileLength = raf.length();
+			if (fileLength == entry.size) {
+				// the header in memory matches the file, skip it and read the body in one go.
+				int headerLength = entry.getHeaderLength();
+				byte[] data = new byte[(int) (fileLength - headerLength)];
+				raf.seek(headerLength);
+				raf.readFully(data);
+				checkCrc(entry, data);
+				mMetrics.onRead(CacheMetrics.DISK, data.length);
+				return entry.toCacheEntry(data);
+			}
+			// the file changed after the index was written, parse its header instead.
+			byte[] bytes = new byte[(int) fileLength];
+			raf.readFully(bytes);
+			CountingInputStream cis = new CountingInputStream(new ByteArrayInputStream(bytes));
+			CacheHeader header = CacheHeader.readHeader(cis);
+			if (!key.equals(header.key)) {
+				throw new IOException("file belongs to key=" + header.key);
+			}
+			byte[] data = Arrays.copyOfRange(bytes, cis.bytesRead, bytes.length);
+			checkCrc(header, data);
+			header.size = fileLength;
+			putEntry(key, header);
+			mMetrics.onRead(CacheMetrics.DISK, data.length);
+			return header.toCacheEntry(data);
+		} finally {
+			try {
+				raf.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Entries are only validated when they are read, so startup never has to read the
+	 * bodies of the entries it restores.
+	 * @throws IOException if the data doesn't match the checksum written with it.
+	 */
+	private static void checkCrc(CacheHeader entry, byte[] data) throws IOException {
+		if (crc(data) != entry.crc) {
+			throw new IOException("checksum mismatch for key=" + entry.key);
+		}
+	}
+
+	static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Returns the entries of the keys that are in the cache. The keys are grouped by lock
+	 * so each group takes its read lock once, and the groups are read in key order on the
+	 * I/O pool.
+	 */
+	@Override
+	public Map<String, Entry> getAll(Collection<String> keys) {
+		final Map<String, Entry> result = new ConcurrentHashMap<String, Entry>();
+		final List<String> broken = Collections.synchronizedList(new ArrayList<String>());
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Map.Entry<ReentrantReadWriteLock, List<String>> group : groupByLock(keys, true).entrySet()) {
+			for (final List<String> chunk : chunks(group.getValue())) {
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						Lock lock = group.getKey().readLock();
+						lock.lock();
+						try {
+							for (String key : chunk) {
+								try {
+									Entry entry = readEntry(key);
+									if (entry != null) {
+										result.put(key, entry);
+									}
+								} catch (IOException e) {
+									VolleyLog.d("%s: %s", getFileForKey(key).getAbsolutePath(), e.toString());
+									broken.add(key);
+								}
+							}
+						} finally {
+							lock.unlock();
+						}
+						return null;
+					}
+				});
+			}
+		}
+		runAll(tasks);
+		for (String key : broken) {
+			remove(key);
+		}
+		CacheMetrics metrics = mMetrics;
+		for (int i = result.size(); i > 0; i--) {
+			metrics.onHit(CacheMetrics.DISK);
+		}
+		for (int i = keys.size() - result.size(); i > 0; i--) {
+			metrics.onMiss(CacheMetrics.DISK);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes all entries, taking the write lock of each group of keys once.
+	 */
+	@Override
+	public void putAll(final Map<String, Entry> entries) {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Map.Entry<ReentrantReadWriteLock, List<String>> group : groupByLock(entries.keySet(), false).entrySet()) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					Lock lock = group.getKey().writeLock();
+					lock.lock();
+					try {
+						for (String key : group.getValue()) {
+							writeEntry(key, entries.get(key));
+						}
+					} finally {
+						lock.unlock();
+					}
+					return null;
+				}
+			});
+		}
+		runAll(tasks);
+		pruneIfNeeded();
+	}
+
+	/**
+	 * Groups the keys by the lock guarding them, each group sorted by key.
+	 * @param cachedOnly True to skip the keys that are not in the cache.
+	 */
+	private Map<ReentrantReadWriteLock, List<String>> groupByLock(Collection<String> keys, boolean cachedOnly) {
+		Map<ReentrantReadWriteLock, List<String>> groups = new LinkedHashMap<ReentrantReadWriteLock, List<String>>();
+		for (String key : new TreeSet<String>(keys)) {
+			if (cachedOnly && !mEntries.containsKey(key)) {
+				continue;
+			}
+			ReentrantReadWriteLock lock = lockFor(key);
+			List<String> group = groups.get(lock);
+			if (group == null) {
+				group = new ArrayList<String>();
+				groups.put(lock, group);
+			}
+			group.add(key);
+		}
+		return groups;
+	}
+
+	/**
+	 * Splits the keys of one lock so they can be read in parallel, read locks are shared.
+	 */
+	private static List<List<String>> chunks(List<String> keys) {
+		int chunkSize = Math.max(1, (keys.size() + IO_THREADS - 1) / IO_THREADS);
+		List<List<String>> chunks = new ArrayList<List<String>>();
+		for (int i = 0; i < keys.size(); i += chunkSize) {
+			chunks.add(keys.subList(i, Math.min(keys.size(), i + chunkSize)));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Runs the tasks on the I/O pool and waits for them, a single task runs on the caller.
+	 */
+	private void runAll(List<Callable<Void>> tasks) {
+		try {
+			if (tasks.size() == 1) {
+				tasks.get(0).call();
+			} else if (!tasks.isEmpty()) {
+				mIoExecutor.invokeAll(tasks);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			VolleyLog.e(e, "batch cache operation failed");
+		}
+	}
+
+	/**
+	 * Returns the metadata of an entry from the in-memory index, without touching the disk.
+	 */
+	@Override
+	public Entry getMetadata(String key) {
+		CacheHeader entry = mEntries.get(key);
+		return entry != null ? entry.toCacheEntry(null) : null;
+	}
 
-		File file = getFileForKey(key);
-		CountingInputStream cis = null;
+	/**
+	 * Overwrites the TTLs of an entry in place, the rest of the file is left untouched.
+	 */
+	@Override
+	public boolean refresh(String key, long softTtl, long ttl) {
+		Lock lock = lockFor(key).writeLock();
+		lock.lock();
+		RandomAccessFile raf = null;
 		try {
-			cis = new CountingInputStream(new FileInputStream(file));
-			CacheHeader.readHeader(cis); // eat header
-			byte[] data = streamToBytes(cis, (int) (file.length() - cis.bytesRead));
-			return entry.toCacheEntry(data);
+			CacheHeader entry = mEntries.get(key);
+			if (entry == null) {
+				return false;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+			writeLong(bytes, ttl);
+			writeLong(bytes, softTtl);
+			raf = new RandomAccessFile(getFileForKey(key), "rw");
+			raf.seek(entry.getTtlOffset());
+			raf.write(bytes.toByteArray());
+			entry.ttl = ttl;
+			entry.softTtl = softTtl;
+			scheduleIndexWrite();
+			return true;
 		} catch (IOException e) {
-			VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
-			remove(key);
-			return null;
+			VolleyLog.d("Could not refresh cache entry for key=%s: %s", key, e.toString());
+			return false;
 		} finally {
-			if (cis != null) {
+			if (raf != null) {
 				try {
-					cis.close();
-				} catch (IOException ioe) {
-					return null;
+					raf.close();
+				} catch (IOException ignored) {
 				}
 			}
+			lock.unlock();
 		}
 	}
 
 	/**
-	 * Initializes the DiskBasedCache by scanning for all files currently in the
-	 * specified root directory. Creates the root directory if necessary.
+	 * Initializes the DiskBasedCache from its index file, falling back to scanning for all
+	 * files currently in the specified root directory when the index is missing or corrupt.
+	 * Creates the root directory if necessary.
 	 */
 	@Override
-	public synchronized void initialize() {
-		if (!mRootDirectory.exists()) {
-			if (!mRootDirectory.mkdirs()) {
-				VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+	public void initialize() {
+		lockAll();
+		try {
+			if (!mRootDirectory.exists()) {
+				if (!mRootDirectory.mkdirs()) {
+					VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+				}
+				return;
 			}
-			return;
+
+			File[] files = mRootDirectory.listFiles();
+			if (files == null) {
+				return;
+			}
+			long startTime = SystemClock.elapsedRealtime();
+			List<CacheHeader> indexed = readIndex();
+			boolean indexStale;
+			if (indexed != null) {
+				indexStale = loadIndex(indexed, files);
+			} else {
+				scanFiles(Arrays.asList(files));
+				indexStale = true;
+			}
+			if (indexStale) {
+				scheduleIndexWrite();
+			}
+			// the budget may have shrunk since the entries were written.
+			schedulePrune();
+			if (VolleyLog.DEBUG) {
+				VolleyLog.v("initialized %d entries from %s, %d ms", mEntries.size(), indexed != null ? "index" : "scan", SystemClock.elapsedRealtime() - startTime);
+			}
+		} finally {
+			unlockAll();
 		}
+	}
 
-		File[] files = mRootDirectory.listFiles();
-		if (files == null) {
-			return;
+	/**
+	 * Restores the entries of the index whose files still exist and parses the headers of
+	 * the files the index doesn't know about.
+	 * @return True if the index didn't match the directory and should be rewritten.
+	 */
+	private boolean loadIndex(List<CacheHeader> indexed, File[] files) {
+		Map<String, File> filesByName = new HashMap<String, File>(files.length);
+		for (File file : files) {
+			if (!isIndexFile(file)) {
+				filesByName.put(file.getName(), file);
+			}
+		}
+		boolean stale = false;
+		for (CacheHeader entry : indexed) {
+			if (filesByName.remove(getFilenameForKey(entry.key)) != null) {
+				putEntry(entry.key, entry);
+			} else {
+				stale = true;
+			}
+		}
+		if (!filesByName.isEmpty()) {
+			// written after the last index write, e.g. the process was killed in between.
+			scanFiles(filesByName.values());
+			stale = true;
 		}
+		return stale;
+	}
+
+	/**
+	 * Parses the header of every file, deleting the ones that are not valid cache files.
+	 */
+	private void scanFiles(Collection<File> files) {
 		for (File file : files) {
-			FileInputStream fis = null;
+			if (isIndexFile(file)) {
+				continue;
+			}
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				// left behind by an editor that never finished.
+				if (!mOpenTempFiles.contains(file.getName())) {
+					file.delete();
+				}
+				continue;
+			}
+			InputStream fis = null;
 			try {
-				fis = new FileInputStream(file);
+				fis = new BufferedInputStream(new FileInputStream(file), HEADER_BUFFER_SIZE);
 				CacheHeader entry = CacheHeader.readHeader(fis);
 				entry.size = file.length();
+				fis.close();
+				File expected = getFileForKey(entry.key);
+				if (!expected.getName().equals(file.getName())) {
+					// named by another hasher, the one configured before a setKeyHasher swap.
+					if (expected.exists() || !file.renameTo(expected)) {
+						file.delete();
+						continue;
+					}
+				}
 				putEntry(entry.key, entry);
 			} catch (IOException e) {
 				if (file != null) {
@@ -171,50 +724,247 @@ public class DiskBasedCache implements Cache {
 	 * @param fullExpire True to fully expire the entry, false to soft expire
 	 */
 	@Override
-	public synchronized void invalidate(String key, boolean fullExpire) {
-		Entry entry = get(key);
-		if (entry != null) {
-			entry.softTtl = 0;
-			if (fullExpire) {
-				entry.ttl = 0;
+	public void invalidate(String key, boolean fullExpire) {
+		Lock lock = lockFor(key).writeLock();
+		lock.lock();
+		try {
+			Entry entry = get(key);
+			if (entry != null) {
+				entry.softTtl = 0;
+				if (fullExpire) {
+					entry.ttl = 0;
+				}
+				writeEntry(key, entry);
 			}
-			put(key, entry);
+		} finally {
+			lock.unlock();
 		}
-
 	}
 
 	/**
 	 * Puts the entry with the specified key into the cache.
 	 */
 	@Override
-	public synchronized void put(String key, Entry entry) {
-		pruneIfNeeded(entry.data.length);
-		File file = getFileForKey(key);
+	public void put(String key, Entry entry) {
+		long startTime = System.nanoTime();
+		Lock lock = lockFor(key).writeLock();
+		lock.lock();
+		try {
+			writeEntry(key, entry);
+		} finally {
+			lock.unlock();
+		}
+		mMetrics.onPutLatency(CacheMetrics.DISK, System.nanoTime() - startTime);
+		// prune after releasing the key's lock, the pruner locks the stripes it evicts from.
+		pruneIfNeeded();
+	}
+
+	/**
+	 * Writes the entry to its file, the caller must hold the key's write lock.
+	 */
+	private void writeEntry(String key, Entry entry) {
+		File tempFile = newTempFile(key);
+		FileOutputStream fos = null;
 		try {
-			FileOutputStream fos = new FileOutputStream(file);
+			fos = new FileOutputStream(tempFile);
 			CacheHeader e = new CacheHeader(key, entry);
-			e.writeHeader(fos);
+			BufferedOutputStream bos = new BufferedOutputStream(fos, HEADER_BUFFER_SIZE);
+			e.writeHeader(bos);
+			bos.flush();
 			fos.write(entry.data);
+			if (mSyncWrites) {
+				fos.getFD().sync();
+			}
 			fos.close();
-			putEntry(key, e);
-			return;
+			fos = null;
+			if (tempFile.renameTo(getFileForKey(key))) {
+				putEntry(key, e);
+				scheduleIndexWrite();
+				mMetrics.onWritten(CacheMetrics.DISK, entry.data.length);
+				return;
+			}
+			VolleyLog.d("Could not rename %s", tempFile.getAbsolutePath());
 		} catch (IOException e) {
+			VolleyLog.d("Could not write cache entry for key=%s: %s", key, e.toString());
+		} finally {
+			closeQuietly(fos);
+			mOpenTempFiles.remove(tempFile.getName());
 		}
-		boolean deleted = file.delete();
-		if (!deleted) {
-			VolleyLog.d("Could not clean up file %s", file.getAbsolutePath());
+		boolean deleted = tempFile.delete();
+		if (!deleted && tempFile.exists()) {
+			VolleyLog.d("Could not clean up file %s", tempFile.getAbsolutePath());
 		}
 	}
 
+	/**
+	 * Returns a unique temp file for the next write of the key, protected from being deleted
+	 * by a concurrent scan until it is removed from {@link #mOpenTempFiles}.
+	 */
+	private File newTempFile(String key) {
+		File tempFile = new File(mRootDirectory, getFilenameForKey(key) + "." + mTempSequence.incrementAndGet() + TEMP_SUFFIX);
+		mOpenTempFiles.add(tempFile.getName());
+		return tempFile;
+	}
+
+	/**
+	 * Starts streaming the data of a new entry into a temp file. The data written to
+	 * {@link Editor#newOutputStream()} only becomes visible once {@link Editor#commit()}
+	 * succeeds, so no buffer of the whole entry is needed.
+	 * @param key Cache key
+	 * @param entry Metadata of the entry, its data is ignored.
+	 */
+	public Editor edit(String key, Entry entry) throws IOException {
+		return new Editor(key, entry);
+	}
+
 	/**
 	 * Removes the specified key from the cache if it exists.
 	 */
 	@Override
-	public synchronized void remove(String key) {
-		boolean deleted = getFileForKey(key).delete();
-		removeEntry(key);
-		if (!deleted) {
-			VolleyLog.d("Could not delete cache entry for key=%s, filename=%s", key, getFilenameForKey(key));
+	public void remove(String key) {
+		Lock lock = lockFor(key).writeLock();
+		lock.lock();
+		try {
+			boolean deleted = deleteFileOf(key);
+			removeEntry(key);
+			scheduleIndexWrite();
+			if (!deleted) {
+				VolleyLog.d("Could not delete cache entry for key=%s, filename=%s", key, getFilenameForKey(key));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns true for the index files, which live next to the cache files.
+	 */
+	private static boolean isIndexFile(File file) {
+		String name = file.getName();
+		return INDEX_FILE.equals(name) || INDEX_FILE_TEMP.equals(name);
+	}
+
+	/**
+	 * Reads the index with a single read and verifies its checksum.
+	 * @return The indexed headers, or null if there is no usable index.
+	 */
+	private List<CacheHeader> readIndex() {
+		File indexFile = new File(mRootDirectory, INDEX_FILE);
+		if (!indexFile.exists()) {
+			return null;
+		}
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(indexFile);
+			byte[] bytes = streamToBytes(fis, (int) indexFile.length());
+			if (bytes.length < 16) {
+				throw new IOException("truncated index");
+			}
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, bytes.length - 8);
+			if (readLong(new ByteArrayInputStream(bytes, bytes.length - 8, 8)) != crc.getValue()) {
+				throw new IOException("index checksum mismatch");
+			}
+			InputStream is = new ByteArrayInputStream(bytes, 0, bytes.length - 8);
+			if (readInt(is) != INDEX_MAGIC) {
+				throw new IOException("unexpected index magic");
+			}
+			int count = readInt(is);
+			if (count < 0) {
+				throw new IOException("unexpected index size " + count);
+			}
+			List<CacheHeader> entries = new ArrayList<CacheHeader>(count);
+			for (int i = 0; i < count; i++) {
+				CacheHeader entry = CacheHeader.readHeader(is);
+				entry.size = readLong(is);
+				entries.add(entry);
+			}
+			return entries;
+		} catch (IOException e) {
+			VolleyLog.d("Ignoring cache index %s: %s", indexFile.getAbsolutePath(), e.toString());
+			indexFile.delete();
+			return null;
+		} finally {
+			try {
+				if (fis != null) {
+					fis.close();
+				}
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Queues a rewrite of the index, unless one is already queued.
+	 */
+	private void scheduleIndexWrite() {
+		if (mIndexWriteScheduled.compareAndSet(false, true)) {
+			executorService.execute(mWriteIndexRunnable);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the headers to a temp file that then replaces the index.
+	 */
+	private void writeIndex() {
+		File tempFile = new File(mRootDirectory, INDEX_FILE_TEMP);
+		List<CacheHeader> entries = new ArrayList<CacheHeader>(mEntries.values());
+		CRC32 crc = new CRC32();
+		OutputStream os = null;
+		try {
+			os = new BufferedOutputStream(new CheckedOutputStream(new FileOutputStream(tempFile), crc));
+			writeInt(os, INDEX_MAGIC);
+			writeInt(os, entries.size());
+			for (CacheHeader entry : entries) {
+				if (!entry.writeHeader(os)) {
+					throw new IOException("failed to write header for key=" + entry.key);
+				}
+				writeLong(os, entry.size);
+			}
+			os.flush();
+			writeLong(os, crc.getValue());
+			os.close();
+			os = null;
+			if (!tempFile.renameTo(new File(mRootDirectory, INDEX_FILE))) {
+				throw new IOException("failed to rename " + tempFile);
+			}
+		} catch (IOException e) {
+			VolleyLog.d("Could not write cache index: %s", e.toString());
+			tempFile.delete();
+		} finally {
+			try {
+				if (os != null) {
+					os.close();
+				}
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Returns the lock stripe guarding the file of the given key.
+	 */
+	private ReentrantReadWriteLock lockFor(String key) {
+		if (mLocks.length == 1) {
+			return mLocks[0];
+		}
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return mLocks[(h & 0x7fffffff) % mLocks.length];
+	}
+
+	/**
+	 * Takes every write lock, always in the same order.
+	 */
+	private void lockAll() {
+		for (ReentrantReadWriteLock lock : mLocks) {
+			lock.writeLock().lock();
+		}
+	}
+
+	private void unlockAll() {
+		for (int i = mLocks.length - 1; i >= 0; i--) {
+			mLocks[i].writeLock().unlock();
 		}
 	}
 
@@ -224,10 +974,19 @@ public class DiskBasedCache implements Cache {
 	 * @return A pseudo-unique filename.
 	 */
 	private String getFilenameForKey(String key) {
-		int firstHalfLength = key.length() / 2;
-		String localFilename = String.valueOf(key.substring(0, firstHalfLength).hashCode()); //减小重复率
-		localFilename += String.valueOf(key.substring(firstHalfLength).hashCode());
-		return localFilename;
+		return mKeyHasher.hash(key);
+	}
+
+	/**
+	 * Deletes the file of the key, unless a colliding key has written it since.
+	 * @return True if the file no longer belongs to the key.
+	 */
+	private boolean deleteFileOf(String key) {
+		String filename = getFilenameForKey(key);
+		if (!key.equals(mFileOwners.get(filename))) {
+			return true;
+		}
+		return new File(mRootDirectory, filename).delete();
 	}
 
 	/**
@@ -238,42 +997,112 @@ public class DiskBasedCache implements Cache {
 	}
 
 	/**
-	 * Prunes the cache to fit the amount of bytes specified.
+	 * Brings the cache back within its budget after a write. Eviction runs on the background
+	 * thread, so writers don't pay for it; a writer only prunes inline when the cache has
+	 * grown far past its budget because the background pruner can't keep up.
+	 */
+	private void pruneIfNeeded() {
+		if (mTotalSize.get() >= mMaxCacheSizeInBytes * INLINE_PRUNE_FACTOR) {
+			prune(0, 0);
+		} else {
+			schedulePrune();
+		}
+	}
+
+	/**
+	 * Queues a background prune if the cache is over budget, unless one is already queued.
+	 */
+	private void schedulePrune() {
+		if (isOverBudget(0, 0, 1f) && mPruneScheduled.compareAndSet(false, true)) {
+			executorService.execute(mPruneRunnable);
+		}
+	}
+
+	private boolean isOverBudget(long neededSpace, int neededEntries, float factor) {
+		return mTotalSize.get() + neededSpace >= mMaxCacheSizeInBytes * factor
+				|| mEntries.size() + neededEntries > mMaxEntries * factor;
+	}
+
+	/**
+	 * Prunes the cache to fit the amount of bytes and entries specified. Expired entries are
+	 * evicted first, then the least recently used ones, in one batch; keys that are busy are
+	 * skipped rather than waited for.
 	 * @param neededSpace The amount of bytes we are trying to fit into the cache.
+	 * @param neededEntries The number of entries we are trying to fit into the cache.
 	 */
-	private void pruneIfNeeded(int neededSpace) {
-		if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes) {
+	private void prune(long neededSpace, int neededEntries) {
+		if (!isOverBudget(neededSpace, neededEntries, 1f)) {
 			return;
 		}
-		if (VolleyLog.DEBUG) {
-			VolleyLog.v("Pruning old cache entries.");
+		if (!mPruning.compareAndSet(false, true)) {
+			// another thread is already pruning.
+			return;
 		}
+		try {
+			if (VolleyLog.DEBUG) {
+				VolleyLog.v("Pruning old cache entries.");
+			}
 
-		long before = mTotalSize;
-		int prunedFiles = 0;
-		long startTime = SystemClock.elapsedRealtime();
+			int prunedFiles = 0;
+			long prunedBytes = 0;
+			long startTime = SystemClock.elapsedRealtime();
 
-		Iterator<Map.Entry<String, CacheHeader>> iterator = mEntries.entrySet().iterator();
-		while (iterator.hasNext()) {
-			Map.Entry<String, CacheHeader> entry = iterator.next();
-			CacheHeader e = entry.getValue();
-			boolean deleted = getFileForKey(e.key).delete();
-			if (deleted) {
-				mTotalSize -= e.size;
-			} else {
-				VolleyLog.d("Could not delete cache entry for key=%s, filename=%s", e.key, getFilenameForKey(e.key));
+			List<CacheHeader> candidates = new ArrayList<CacheHeader>(mEntries.values());
+			Collections.sort(candidates, evictionOrder(System.currentTimeMillis()));
+			for (CacheHeader e : candidates) {
+				Lock lock = lockFor(e.key).writeLock();
+				if (!lock.tryLock()) {
+					continue;
+				}
+				try {
+					// skip entries rewritten since the snapshot was taken.
+					if (mEntries.get(e.key) != e) {
+						continue;
+					}
+					boolean deleted = deleteFileOf(e.key);
+					if (!deleted) {
+						VolleyLog.d("Could not delete cache entry for key=%s, filename=%s", e.key, getFilenameForKey(e.key));
+					}
+					removeEntry(e.key);
+					prunedFiles++;
+					prunedBytes += e.size;
+				} finally {
+					lock.unlock();
+				}
+
+				if (!isOverBudget(neededSpace, neededEntries, HYSTERESIS_FACTOR)) {
+					break;
+				}
 			}
-			iterator.remove();
-			prunedFiles++;
 
-			if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
-				break;
+			if (prunedFiles > 0) {
+				scheduleIndexWrite();
+				mMetrics.onEvicted(CacheMetrics.DISK, prunedFiles, prunedBytes);
 			}
+			if (VolleyLog.DEBUG) {
+				VolleyLog.v("pruned %d files, %d bytes, %d ms", prunedFiles, prunedBytes, SystemClock.elapsedRealtime() - startTime);
+			}
+		} finally {
+			mPruning.set(false);
 		}
+	}
 
-		if (VolleyLog.DEBUG) {
-			VolleyLog.v("pruned %d files, %d bytes, %d ms", prunedFiles, (mTotalSize - before), SystemClock.elapsedRealtime() - startTime);
-		}
+	/**
+	 * Orders expired entries before live ones, and each group from the least to the most
+	 * recently used.
+	 */
+	private static Comparator<CacheHeader> evictionOrder(final long now) {
+		return new Comparator<CacheHeader>() {
+			@Override
+			public int compare(CacheHeader lhs, CacheHeader rhs) {
+				boolean lhsExpired = lhs.ttl < now;
+				boolean rhsExpired = rhs.ttl < now;
+				if (lhsExpired != rhsExpired) {
+					return lhsExpired ? -1 : 1;
+				}
+				return ACCESS_ORDER.compare(lhs, rhs);
+			}
+		};
 	}
 
 	/**
@@ -282,23 +1111,39 @@ public class DiskBasedCache implements Cache {
 	 * @param entry The entry to cache.
 	 */
 	private void putEntry(String key, CacheHeader entry) {
-		if (!mEntries.containsKey(key)) {
-			mTotalSize += entry.size;
-		} else {
-			CacheHeader oldEntry = mEntries.get(key);
-			mTotalSize += (entry.size - oldEntry.size);
+		entry.lastAccess = mAccessClock.incrementAndGet();
+		CacheHeader oldEntry = mEntries.put(key, entry);
+		mTotalSize.addAndGet(oldEntry == null ? entry.size : entry.size - oldEntry.size);
+		String previousOwner = mFileOwners.put(getFilenameForKey(key), key);
+		if (previousOwner != null && !previousOwner.equals(key)) {
+			// the names collide, the file now holds this key.
+			VolleyLog.d("Cache key %s displaced %s, same filename", key, previousOwner);
+			CacheHeader displaced = mEntries.remove(previousOwner);
+			if (displaced != null) {
+				mTotalSize.addAndGet(-displaced.size);
+				notifyRemoved(previousOwner);
+			}
 		}
-		mEntries.put(key, entry);
 	}
 
 	/**
 	 * Removes the entry identified by 'key' from the cache.
 	 */
 	private void removeEntry(String key) {
-		CacheHeader entry = mEntries.get(key);
+		CacheHeader entry = mEntries.remove(key);
 		if (entry != null) {
-			mTotalSize -= entry.size;
-			mEntries.remove(key);
+			mTotalSize.addAndGet(-entry.size);
+		}
+		mFileOwners.remove(getFilenameForKey(key), key);
+		if (entry != null) {
+			notifyRemoved(key);
+		}
+	}
+
+	private void notifyRemoved(String key) {
+		RemovalListener listener = mRemovalListener;
+		if (listener != null) {
+			listener.onRemoved(key);
 		}
 	}
 
@@ -318,6 +1163,118 @@ public class DiskBasedCache implements Cache {
 		return bytes;
 	}
 
+	/**
+	 * Streams the data of one entry into a temp file and publishes it with a rename.
+	 */
+	public final class Editor {
+		private final CacheHeader mHeader;
+		private final File mTempFile;
+		private final OutputStream mOutputStream;
+		/** Checksum of the data, patched into the header on commit. */
+		private final CRC32 mCrc = new CRC32();
+		private boolean mDone;
+
+		private Editor(String key, Entry entry) throws IOException {
+			mHeader = new CacheHeader(key, entry);
+			mTempFile = newTempFile(key);
+			OutputStream os = null;
+			try {
+				os = new BufferedOutputStream(new FileOutputStream(mTempFile));
+				if (!mHeader.writeHeader(os)) {
+					throw new IOException("failed to write header for key=" + key);
+				}
+			} catch (IOException e) {
+				closeQuietly(os);
+				discard();
+				throw e;
+			}
+			mOutputStream = new CheckedOutputStream(os, mCrc);
+		}
+
+		/**
+		 * Returns the stream the data of the entry is written to.
+		 */
+		public OutputStream newOutputStream() {
+			return mOutputStream;
+		}
+
+		/**
+		 * Publishes the written data, replacing any previous entry of the key.
+		 * @return True if the entry was stored.
+		 */
+		public boolean commit() {
+			if (mDone) {
+				return false;
+			}
+			mDone = true;
+			RandomAccessFile raf = null;
+			try {
+				mOutputStream.close();
+				mHeader.crc = mCrc.getValue();
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+				writeLong(bytes, mHeader.crc);
+				raf = new RandomAccessFile(mTempFile, "rw");
+				raf.seek(mHeader.getCrcOffset());
+				raf.write(bytes.toByteArray());
+				if (mSyncWrites) {
+					raf.getFD().sync();
+				}
+			} catch (IOException e) {
+				VolleyLog.d("Could not write cache entry for key=%s: %s", mHeader.key, e.toString());
+				closeQuietly(raf);
+				discard();
+				return false;
+			}
+			closeQuietly(raf);
+			mHeader.size = mTempFile.length();
+			Lock lock = lockFor(mHeader.key).writeLock();
+			lock.lock();
+			try {
+				if (!mTempFile.renameTo(getFileForKey(mHeader.key))) {
+					VolleyLog.d("Could not rename %s", mTempFile.getAbsolutePath());
+					discard();
+					return false;
+				}
+				mOpenTempFiles.remove(mTempFile.getName());
+				putEntry(mHeader.key, mHeader);
+				scheduleIndexWrite();
+			} finally {
+				lock.unlock();
+			}
+			mMetrics.onWritten(CacheMetrics.DISK, mHeader.size - mHeader.getHeaderLength());
+			pruneIfNeeded();
+			return true;
+		}
+
+		/**
+		 * Drops the written data, the previous entry of the key stays untouched.
+		 */
+		public void abort() {
+			if (mDone) {
+				return;
+			}
+			mDone = true;
+			closeQuietly(mOutputStream);
+			discard();
+		}
+
+		private void discard() {
+			if (!mTempFile.delete() && mTempFile.exists()) {
+				VolleyLog.d("Could not clean up file %s", mTempFile.getAbsolutePath());
+			}
+			mOpenTempFiles.remove(mTempFile.getName());
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
 	/**
 	 * Handles holding onto the cache headers for an entry.
 	 */
@@ -342,9 +1299,21 @@ public class DiskBasedCache implements Cache {
 		/** Soft TTL for this record. */
 		public long softTtl;
 
+		/** True if the data is deflate compressed. */
+		public boolean compressed;
+
+		/** CRC32 of the data, checked on every read. */
+		public long crc;
+
 		/** Headers from the response resulting in this cache entry. */
 		public Map<String, String> responseHeaders;
 
+		/** Access clock value of the last read or write. (This is not serialized to disk. */
+		volatile long lastAccess;
+
+		/** Serialized length of this header, 0 until computed. (This is not serialized to disk. */
+		private int headerLength;
+
 		private CacheHeader() {
 		}
 
@@ -355,12 +1324,54 @@ public class DiskBasedCache implements Cache {
 		 */
 		public CacheHeader(String key, Entry entry) {
 			this.key = key;
-			this.size = entry.data.length;
 			this.mimeType = entry.mimeType;
 			this.serverDate = entry.serverDate;
 			this.ttl = entry.ttl;
 			this.softTtl = entry.softTtl;
+			this.compressed = entry.compressed;
 			this.responseHeaders = entry.responseHeaders;
+			if (entry.data != null) {
+				this.crc = crc(entry.data);
+			}
+			this.size = getHeaderLength() + (entry.data != null ? entry.data.length : 0);
+		}
+
+		/**
+		 * Returns the number of bytes {@link #writeHeader} writes, which is where the data
+		 * starts in the cache file.
+		 */
+		public int getHeaderLength() {
+			if (headerLength == 0) {
+				int length = 4; // magic
+				length += 8 + utf8Length(key);
+				length += 8 + utf8Length(mimeType == null ? "" : mimeType);
+				length += 8 * 3; // serverDate, ttl, softTtl
+				length += 1; // compressed
+				length += 8; // crc
+				length += 4; // header count
+				if (responseHeaders != null) {
+					for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+						length += 8 + utf8Length(header.getKey());
+						length += 8 + utf8Length(header.getValue());
+					}
+				}
+				headerLength = length;
+			}
+			return headerLength;
+		}
+
+		/**
+		 * Returns the offset of the ttl in the cache file, the softTtl follows it.
+		 */
+		public int getTtlOffset() {
+			return 4 + 8 + utf8Length(key) + 8 + utf8Length(mimeType == null ? "" : mimeType) + 8;
+		}
+
+		/**
+		 * Returns the offset of the crc in the cache file.
+		 */
+		public int getCrcOffset() {
+			return getTtlOffset() + 8 * 2 + 1;
 		}
 
 		/**
@@ -372,8 +1383,8 @@ public class DiskBasedCache implements Cache {
 			CacheHeader entry = new CacheHeader();
 			int magic = readInt(is);
 			if (magic != CACHE_MAGIC) {
-				// don't bother deleting, it'll get pruned eventually
-				throw new IOException();
+				// written by an older version, the caller deletes the file.
+				throw new IOException("unknown magic " + Integer.toHexString(magic));
 			}
 			entry.key = readString(is);
 			entry.mimeType = readString(is);
@@ -383,6 +1394,8 @@ public class DiskBasedCache implements Cache {
 			entry.serverDate = readLong(is);
 			entry.ttl = readLong(is);
 			entry.softTtl = readLong(is);
+			entry.compressed = read(is) != 0;
+			entry.crc = readLong(is);
 			entry.responseHeaders = readStringStringMap(is);
 			return entry;
 		}
@@ -397,6 +1410,7 @@ public class DiskBasedCache implements Cache {
 			e.serverDate = serverDate;
 			e.ttl = ttl;
 			e.softTtl = softTtl;
+			e.compressed = compressed;
 			e.responseHeaders = responseHeaders;
 			return e;
 		}
@@ -412,8 +1426,9 @@ public class DiskBasedCache implements Cache {
 				writeLong(os, serverDate);
 				writeLong(os, ttl);
 				writeLong(os, softTtl);
+				os.write(compressed ? 1 : 0);
+				writeLong(os, crc);
 				writeStringStringMap(responseHeaders, os);
-				os.flush();
 				return true;
 			} catch (IOException e) {
 				VolleyLog.d("%s", e.toString());
@@ -514,6 +1529,29 @@ public class DiskBasedCache implements Cache {
 		os.write(b, 0, b.length);
 	}
 
+	/**
+	 * Returns the length of the string encoded as UTF-8, without encoding it.
+	 */
+	static int utf8Length(String s) {
+		int length = 0;
+		for (int i = 0, n = s.length(); i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				length++; // malformed, encoded as '?'
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
 	static String readString(InputStream is) throws IOException {
 		int n = (int) readLong(is);
 		byte[] b = streamToBytes(is, n);
@@ -545,7 +1583,13 @@ public class DiskBasedCache implements Cache {
 
 	@Override
 	public long getCacheSize() {
-		return mTotalSize;
+		return mTotalSize.get();
 	}
 
+	/**
+	 * Receives the keys that leave the cache, see {@link #setRemovalListener(RemovalListener)}.
+	 */
+	public interface RemovalListener {
+		void onRemoved(String key);
+	}
 }
@@ -0,0 +1,12 @@
+package cc.easyandroid.easycache.volleycache;
+
+/**
+ * Maps cache keys to file names. The same key must always map to the same name, and the
+ * name may only contain characters that are valid in a file name.
+ */
+public interface KeyHasher {
+	/**
+	 * Returns the file name for the key.
+	 */
+	String hash(String key);
+}
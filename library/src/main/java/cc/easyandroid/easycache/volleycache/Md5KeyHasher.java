@@ -0,0 +1,30 @@
+package cc.easyandroid.easycache.volleycache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The original file naming of the disk caches: the MD5 of the key's bytes in the platform
+ * charset as lowercase hex, or the key's hashCode if MD5 is unavailable. Kept so caches
+ * written by earlier versions still hit.
+ */
+public final class Md5KeyHasher implements KeyHasher {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	@Override
+	public String hash(String key) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			digest.update(key.getBytes());
+			byte[] bytes = digest.digest();
+			char[] hex = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+				hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			return String.valueOf(key.hashCode());
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package cc.easyandroid.easycache.volleycache;
+
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cc.easyandroid.easycache.CacheMetrics;
+
+/**
+ * A bounded in-memory LRU tier in front of another {@link BatchCache}, sized by the bytes of
+ * the cached data. Reads are served from memory when possible and populate it on a miss,
+ * writes go through to the backing cache.
+ * <p>
+ * Entries returned from memory are shared between callers and must not be modified.
+ */
+public class MemoryTierCache implements BatchCache {
+	/** The cache behind this tier. */
+	private final BatchCache mDelegate;
+
+	/** Decoded entries, sized by their data length. */
+	private final Memory mMemory;
+
+	/** Entries larger than this are only kept on disk so they can't flush the whole tier. */
+	private final int mMaxEntrySizeInBytes;
+
+	/** Number of generation stripes, keys sharing a stripe only cost each other a populate. */
+	private static final int GENERATION_STRIPES = 64;
+
+	/**
+	 * Bumped after every write or removal of a key's stripe reaches the backing cache, so a
+	 * reader that loaded the entry before it doesn't put the stale copy into memory.
+	 */
+	private final AtomicLongArray mGenerations = new AtomicLongArray(GENERATION_STRIPES);
+
+	private final AtomicLong mHitCount = new AtomicLong();
+	private final AtomicLong mMissCount = new AtomicLong();
+
+	/** Receives the hits, misses and evictions of the memory tier. */
+	private volatile CacheMetrics mMetrics = CacheMetrics.NONE;
+
+	/**
+	 * @param delegate The cache behind this tier.
+	 * @param maxSizeInBytes The maximum size of the memory tier in bytes.
+	 */
+	public MemoryTierCache(BatchCache delegate, int maxSizeInBytes) {
+		mDelegate = delegate;
+		mMaxEntrySizeInBytes = maxSizeInBytes / 4;
+		mMemory = new LruMemory(maxSizeInBytes);
+	}
+
+	/**
+	 * Constructs a tier keeping its entries in the given memory, used by tests on the JVM
+	 * where {@link LruCache} is a stub.
+	 * @param maxSizeInBytes The size the memory is bounded by.
+	 */
+	MemoryTierCache(BatchCache delegate, int maxSizeInBytes, Memory memory) {
+		mDelegate = delegate;
+		mMaxEntrySizeInBytes = maxSizeInBytes / 4;
+		mMemory = memory;
+	}
+
+	@Override
+	public Entry get(String key) {
+		Entry entry = mMemory.get(key);
+		if (entry != null) {
+			mHitCount.incrementAndGet();
+			mMetrics.onHit(CacheMetrics.MEMORY);
+			return entry;
+		}
+		mMissCount.incrementAndGet();
+		mMetrics.onMiss(CacheMetrics.MEMORY);
+		long generation = generationOf(key);
+		entry = mDelegate.get(key);
+		if (entry != null) {
+			populate(key, entry, generation);
+		}
+		return entry;
+	}
+
+	@Override
+	public void put(String key, Entry entry) {
+		mDelegate.put(key, entry);
+		synchronized (mMemory) {
+			bumpGeneration(key);
+			if (fits(entry)) {
+				mMemory.put(key, entry);
+			} else {
+				mMemory.remove(key);
+			}
+		}
+	}
+
+	@Override
+	public Map<String, Entry> getAll(Collection<String> keys) {
+		Map<String, Entry> result = new HashMap<String, Entry>();
+		List<String> misses = new ArrayList<String>();
+		Map<String, Long> generations = new HashMap<String, Long>();
+		for (String key : keys) {
+			Entry entry = mMemory.get(key);
+			if (entry != null) {
+				mHitCount.incrementAndGet();
+				mMetrics.onHit(CacheMetrics.MEMORY);
+				result.put(key, entry);
+			} else {
+				mMissCount.incrementAndGet();
+				mMetrics.onMiss(CacheMetrics.MEMORY);
+				misses.add(key);
+				generations.put(key, generationOf(key));
+			}
+		}
+		if (!misses.isEmpty()) {
+			Map<String, Entry> loaded = mDelegate.getAll(misses);
+			for (Map.Entry<String, Entry> entry : loaded.entrySet()) {
+				populate(entry.getKey(), entry.getValue(), generations.get(entry.getKey()));
+			}
+			result.putAll(loaded);
+		}
+		return result;
+	}
+
+	@Override
+	public void putAll(Map<String, Entry> entries) {
+		mDelegate.putAll(entries);
+		synchronized (mMemory) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				bumpGeneration(entry.getKey());
+				if (fits(entry.getValue())) {
+					mMemory.put(entry.getKey(), entry.getValue());
+				} else {
+					mMemory.remove(entry.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Keeps an entry read from the backing cache, unless the key was written, evicted or
+	 * removed since the read started.
+	 * @param generation The key's generation from before the backing cache was read.
+	 */
+	private void populate(String key, Entry entry, long generation) {
+		if (!fits(entry)) {
+			return;
+		}
+		synchronized (mMemory) {
+			if (generationOf(key) == generation && mMemory.get(key) == null) {
+				mMemory.put(key, entry);
+			}
+		}
+	}
+
+	private long generationOf(String key) {
+		return mGenerations.get(stripeOf(key));
+	}
+
+	/**
+	 * Must be called after the backing cache changed, under the lock of the memory tier.
+	 */
+	private void bumpGeneration(String key) {
+		mGenerations.incrementAndGet(stripeOf(key));
+	}
+
+	private static int stripeOf(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return h & (GENERATION_STRIPES - 1);
+	}
+
+	/** Drops the memory copy of a key once the backing cache has changed. */
+	private void forget(String key) {
+		synchronized (mMemory) {
+			bumpGeneration(key);
+			mMemory.remove(key);
+		}
+	}
+
+	private boolean fits(Entry entry) {
+		return entry.data != null && entry.data.length <= mMaxEntrySizeInBytes;
+	}
+
+	@Override
+	public Entry getMetadata(String key) {
+		return mDelegate.getMetadata(key);
+	}
+
+	@Override
+	public boolean refresh(String key, long softTtl, long ttl) {
+		// the memory copy is shared with callers, reload it with the new TTLs instead.
+		boolean refreshed = mDelegate.refresh(key, softTtl, ttl);
+		forget(key);
+		return refreshed;
+	}
+
+	@Override
+	public void initialize() {
+		mDelegate.initialize();
+	}
+
+	@Override
+	public void invalidate(String key, boolean fullExpire) {
+		mDelegate.invalidate(key, fullExpire);
+		forget(key);
+	}
+
+	@Override
+	public void remove(String key) {
+		mDelegate.remove(key);
+		forget(key);
+	}
+
+	@Override
+	public void clear() {
+		mDelegate.clear();
+		synchronized (mMemory) {
+			for (int i = 0; i < GENERATION_STRIPES; i++) {
+				mGenerations.incrementAndGet(i);
+			}
+			mMemory.evictAll();
+		}
+	}
+
+	@Override
+	public long getCacheSize() {
+		return mDelegate.getCacheSize();
+	}
+
+	/**
+	 * Drops the memory copy of an entry whose data was rewritten behind this tier. Call it
+	 * after the backing cache changed, so concurrent reads of the old data are not kept.
+	 */
+	public void evict(String key) {
+		forget(key);
+	}
+
+	/**
+	 * Sets the metrics receiving the hits, misses and evictions of the memory tier, reported
+	 * as {@link CacheMetrics#MEMORY}. The backing cache reports its own.
+	 */
+	public void setMetrics(CacheMetrics metrics) {
+		mMetrics = metrics != null ? metrics : CacheMetrics.NONE;
+	}
+
+	/** Returns the cache behind this tier. */
+	public BatchCache getDelegate() {
+		return mDelegate;
+	}
+
+	/** Returns the number of reads served from memory. */
+	public long getHitCount() {
+		return mHitCount.get();
+	}
+
+	/** Returns the number of reads that had to go to the backing cache. */
+	public long getMissCount() {
+		return mMissCount.get();
+	}
+
+	/** Returns the bytes currently held in memory. */
+	public int getMemorySize() {
+		return mMemory.size();
+	}
+
+	/**
+	 * The map holding the memory copies in least recently used order, bounded by the summed
+	 * data length of its entries. Its own methods must be thread safe.
+	 */
+	interface Memory {
+		/** Returns the entry and marks it as the most recently used one, or null. */
+		Entry get(String key);
+
+		/**
+		 * Adds or replaces an entry, evicting the least recently used ones over the bound.
+		 * @return The replaced entry, or null.
+		 */
+		Entry put(String key, Entry entry);
+
+		/** @return The removed entry, or null. */
+		Entry remove(String key);
+
+		void evictAll();
+
+		/** Returns the summed data length of the entries. */
+		int size();
+	}
+
+	/** The default memory, reporting its evictions to the metrics. */
+	private final class LruMemory extends LruCache<String, Entry> implements Memory {
+		LruMemory(int maxSizeInBytes) {
+			super(maxSizeInBytes);
+		}
+
+		@Override
+		protected int sizeOf(String key, Entry entry) {
+			return entry.data.length;
+		}
+
+		@Override
+		protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+			if (evicted) {
+				mMetrics.onEvicted(CacheMetrics.MEMORY, 1, oldValue.data.length);
+			}
+		}
+	}
+}
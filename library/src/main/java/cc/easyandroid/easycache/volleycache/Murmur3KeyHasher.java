@@ -0,0 +1,147 @@
+package cc.easyandroid.easycache.volleycache;
+
+/**
+ * Hashes keys with the 128 bit x64 variant of MurmurHash3 over their UTF-8 bytes and
+ * returns the hash as 32 lowercase hex characters. The bytes are encoded and mixed on the
+ * fly with per-thread state, so the only allocation per call is the returned String.
+ */
+public final class Murmur3KeyHasher implements KeyHasher {
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	@Override
+	public String hash(String key) {
+		State state = STATE.get();
+		state.reset();
+		int length = key.length();
+		for (int i = 0; i < length; i++) {
+			char c = key.charAt(i);
+			if (c < 0x80) {
+				state.add(c);
+			} else if (c < 0x800) {
+				state.add(0xc0 | (c >> 6));
+				state.add(0x80 | (c & 0x3f));
+			} else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+				state.add(0xe0 | (c >> 12));
+				state.add(0x80 | ((c >> 6) & 0x3f));
+				state.add(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(key.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, key.charAt(++i));
+				state.add(0xf0 | (codePoint >> 18));
+				state.add(0x80 | ((codePoint >> 12) & 0x3f));
+				state.add(0x80 | ((codePoint >> 6) & 0x3f));
+				state.add(0x80 | (codePoint & 0x3f));
+			} else {
+				// unpaired surrogate, encoded as '?' like String.getBytes does.
+				state.add('?');
+			}
+		}
+		state.finish();
+		char[] out = state.out;
+		toHex(state.h1, out, 0);
+		toHex(state.h2, out, 16);
+		return new String(out);
+	}
+
+	private static void toHex(long value, char[] out, int offset) {
+		for (int i = 15; i >= 0; i--) {
+			out[offset + i] = HEX_DIGITS[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static final class State {
+		final char[] out = new char[32];
+		long h1;
+		long h2;
+		/** The bytes of the current block that are not mixed in yet. */
+		long k1;
+		long k2;
+		int position;
+		int length;
+
+		void reset() {
+			h1 = 0;
+			h2 = 0;
+			k1 = 0;
+			k2 = 0;
+			position = 0;
+			length = 0;
+		}
+
+		void add(int b) {
+			long value = b & 0xffL;
+			if (position < 8) {
+				k1 |= value << (position * 8);
+			} else {
+				k2 |= value << ((position - 8) * 8);
+			}
+			length++;
+			if (++position == 16) {
+				mixBlock();
+			}
+		}
+
+		private void mixBlock() {
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+			k1 = 0;
+			k2 = 0;
+			position = 0;
+		}
+
+		void finish() {
+			if (position > 8) {
+				h2 ^= mixK2(k2);
+			}
+			if (position > 0) {
+				h1 ^= mixK1(k1);
+			}
+			h1 ^= length;
+			h2 ^= length;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix(h1);
+			h2 = fmix(h2);
+			h1 += h2;
+			h2 += h1;
+		}
+
+		private static long mixK1(long k1) {
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			return k1;
+		}
+
+		private static long mixK2(long k2) {
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			return k2;
+		}
+	}
+}
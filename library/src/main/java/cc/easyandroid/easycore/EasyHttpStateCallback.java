@@ -17,7 +17,9 @@ package cc.easyandroid.easycore;
 
 /**
  * Communicates responses from a server or offline requests. One and only one method will be
- * invoked in response to a given request.
+ * invoked in response to a given request, except that
+ * {@link cc.easyandroid.easyhttp.core.CacheMode#LOAD_CACHE_THEN_REVALIDATE} invokes
+ * {@link #onResponse} a second time when the refreshed content differs from the cached one.
  * <p>
  * EasyHttpStateCallback methods are executed using the {@link EasyHttpStateCallback} callback executor. When none is
  * specified, the following defaults are used:
@@ -1,6 +1,7 @@
 package cc.easyandroid.easyhttp;
 
 import android.content.Context;
+import android.os.SystemClock;
 
 import com.google.gson.Gson;
 
@@ -8,12 +9,16 @@ import java.io.File;
 import java.lang.reflect.Type;
 import java.util.List;
 
+import cc.easyandroid.easycache.CacheMetrics;
+import cc.easyandroid.easycache.CountingCacheMetrics;
 import cc.easyandroid.easycache.EasyHttpCache;
 import cc.easyandroid.easycore.EasyCall;
 import cc.easyandroid.easyhttp.core.converter.Converter;
 import cc.easyandroid.easyhttp.core.converter.ConverterFactory;
+import cc.easyandroid.easymvp.call.CachePrefetcher;
 import cc.easyandroid.easymvp.call.OkHttpDownLoadEasyCall;
 import cc.easyandroid.easymvp.call.OkHttpEasyCall;
+import cc.easyandroid.easymvp.call.RequestCoalescer;
 import cc.easyandroid.module.EasyHttpUtilsModule;
 import cc.easyandroid.module.ManifestParser;
 import okhttp3.OkHttpClient;
@@ -26,11 +31,14 @@ public class EasyHttp {
     private OkHttpClient mOkHttpClient;
     private Gson mGson;
     private EasyHttpCache mEasyHttpCache;
+    private long mStartupTime = -1;
+    private RequestCoalescer mRequestCoalescer;
 
     private EasyHttp(Builder builder) {
         mOkHttpClient = builder.okHttpClient;
         mGson = builder.gson;
         mEasyHttpCache = builder.easyHttpCache;
+        mRequestCoalescer = builder.coalesceRequests ? new RequestCoalescer() : null;
         converterFactory = ConverterFactory.create(mGson, mEasyHttpCache);
     }
 
@@ -47,6 +55,30 @@ public class EasyHttp {
         return mEasyHttpCache;
     }
 
+    /**
+     * {@link #get(Context)} 创建单例的耗时，用于监控冷启动，缓存的初始化耗时见 {@link EasyHttpCache#getInitializeTime()}
+     *
+     * @return 单位毫秒，不是通过get(Context)创建时返回-1
+     */
+    public long getStartupTime() {
+        return mStartupTime;
+    }
+
+    /**
+     * 合并相同请求的RequestCoalescer，没有开启时返回null
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return mRequestCoalescer;
+    }
+
+    /**
+     * 创建预加载器，使用默认的OkHttpClient，下载的数据写入{@link #getEasyHttpCache()}
+     */
+    public CachePrefetcher createCachePrefetcher(Context context) {
+        checkNull(mOkHttpClient);
+        return new CachePrefetcher(context, mOkHttpClient, mEasyHttpCache);
+    }
+
     public <T> EasyCall<T> executeHttpRequestToCall(Request request, Type type) {
         checkNull(mOkHttpClient);
         Converter responseConverter;
@@ -55,7 +87,7 @@ public class EasyHttp {
         } else {
             responseConverter = getConverterFactory().getGsonConverter(type);
         }
-        EasyCall<T> easyCall = new OkHttpEasyCall<>(mOkHttpClient, responseConverter, request,mEasyHttpCache);
+        EasyCall<T> easyCall = new OkHttpEasyCall<>(mOkHttpClient, responseConverter, request, mEasyHttpCache, mRequestCoalescer, type);
 
         return easyCall;
     }
@@ -83,7 +115,8 @@ public class EasyHttp {
         } else {
             responseConverter = getConverterFactory().getGsonConverter(type);
         }
-        EasyCall<T> easyCall = new OkHttpEasyCall<T>(client, responseConverter, request,mEasyHttpCache);
+        RequestCoalescer coalescer = client == mOkHttpClient ? mRequestCoalescer : null;//只合并默认client的请求
+        EasyCall<T> easyCall = new OkHttpEasyCall<T>(client, responseConverter, request, mEasyHttpCache, coalescer, type);
 
         return easyCall;
     }
@@ -118,6 +151,7 @@ public class EasyHttp {
         if (easyHttp == null) {
             synchronized (EasyHttp.class) {
                 if (easyHttp == null) {
+                    long start = SystemClock.elapsedRealtime();
                     Context applicationContext = context.getApplicationContext();
                     List<EasyHttpUtilsModule> modules = new ManifestParser(applicationContext).parse();
 
@@ -130,6 +164,7 @@ public class EasyHttp {
                     for (EasyHttpUtilsModule module : modules) {
                         module.registerComponents(applicationContext, easyHttp);
                     }
+                    easyHttp.mStartupTime = SystemClock.elapsedRealtime() - start;
                 }
             }
         }
@@ -140,6 +175,9 @@ public class EasyHttp {
         Gson gson;
         OkHttpClient okHttpClient;
         EasyHttpCache easyHttpCache;
+        boolean asyncInitialize;
+        boolean coalesceRequests;
+        CacheMetrics cacheMetrics;
         private final Context context;
 
         public Builder setGson(Gson gson) {
@@ -156,6 +194,38 @@ public class EasyHttp {
             this.easyHttpCache = easyHttpCache;
         }
 
+        /**
+         * 默认缓存在后台线程初始化，不阻塞调用线程；只有读写缓存的请求才会等待，纯网络请求不受影响。
+         * 通过 {@link #setEasyHttpCache(EasyHttpCache)} 设置了缓存时无效
+         *
+         * @param asyncInitialize true 异步初始化
+         */
+        public Builder setAsyncInitialize(boolean asyncInitialize) {
+            this.asyncInitialize = asyncInitialize;
+            return this;
+        }
+
+        /**
+         * 合并同时进行的相同GET请求（url和解析类型都相同），只请求一次网络，结果回调给所有调用者
+         *
+         * @param coalesceRequests true 合并
+         */
+        public Builder setCoalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        /**
+         * 统计缓存的命中、过期、淘汰、读写字节数和耗时，默认不统计，可以用{@link CountingCacheMetrics}。
+         * 通过 {@link #setEasyHttpCache(EasyHttpCache)} 设置的缓存也会使用
+         *
+         * @param cacheMetrics 统计
+         */
+        public Builder setCacheMetrics(CacheMetrics cacheMetrics) {
+            this.cacheMetrics = cacheMetrics;
+            return this;
+        }
+
         public Builder(Context context) {
             this.context = context.getApplicationContext();
         }
@@ -167,7 +237,10 @@ public class EasyHttp {
             checkNull(okHttpClient);
             if (easyHttpCache == null) {
                 // 根据volley 缓存cache修改 ，不需要http协议就可保存
-                easyHttpCache = new EasyHttpCache(context);
+                easyHttpCache = new EasyHttpCache.Builder(context).setAsyncInitialize(asyncInitialize).build();
+            }
+            if (cacheMetrics != null) {
+                easyHttpCache.setMetrics(cacheMetrics);
             }
             return new EasyHttp(this);
         }
@@ -9,5 +9,7 @@ public interface CacheMode {
 	String LOAD_NETWORK_ELSE_CACHE = "network-else-cache";
 	// 网络
 	String LOAD_NETWORK_ONLY = "network-only";
+	// 缓存---->后台刷新，缓存超过Cache-Refresh-Duration后先返回缓存再请求网络，内容有变化时会再回调一次onResponse
+	String LOAD_CACHE_THEN_REVALIDATE = "cache-then-revalidate";
 
 }
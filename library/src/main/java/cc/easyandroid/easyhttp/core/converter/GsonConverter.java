@@ -17,12 +17,10 @@ package cc.easyandroid.easyhttp.core.converter;
 
 import com.google.gson.TypeAdapter;
 
-import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
 
 import cc.easyandroid.easycache.EasyHttpCache;
 import cc.easyandroid.easylog.EALog;
@@ -44,25 +42,39 @@ public final class GsonConverter<T> implements Converter<T> {
 
 
     public T fromBody(ResponseBody value, Request request, boolean fromNetWork) throws IOException {
-        String string = value.string();
-        EALog.d("Network request string : %1$s", string);
-        System.out.println("easyandroid= " + string);
-        Reader reader = new InputStreamReader((new ByteArrayInputStream(string.getBytes(UTF8))), Util.UTF_8);
+        EasyHttpCache.Editor editor = fromNetWork ? mEasyHttpCache.edit(request, value) : null;
+        if (fromNetWork && editor == null) {
+            return fromString(value, request);
+        }
+        ResponseBody body = editor != null ? editor.tee(value) : value;
+        Reader reader = new InputStreamReader(body.byteStream(), Util.UTF_8);
+        T t = null;
         try {
-            T t = typeAdapter.fromJson(reader);
-            EALog.d(" Finally converted to : %1$s", t.toString());
-            String mimeType = value.contentType().toString();
-            parseCache(request, t, string, mimeType, fromNetWork);
+            t = typeAdapter.fromJson(reader);
+            EALog.d(" Finally converted to : %1$s", t);
             return t;
         } finally {
+            if (editor != null) {
+                if (t != null) {
+                    editor.commit(t);
+                } else {
+                    editor.abort();
+                }
+            }
             closeQuietly(reader);
         }
     }
 
-    private void parseCache(Request request, T object, String string, String mimeType, boolean fromNetWork) throws UnsupportedEncodingException {
-        if (fromNetWork) {
-            mEasyHttpCache.put(request, object, string.getBytes(UTF8));
-        }
+    /**
+     * 不支持流式写入缓存时，先读成字符串再保存
+     */
+    private T fromString(ResponseBody value, Request request) throws IOException {
+        String string = value.string();
+        EALog.d("Network request string : %1$s", string);
+        T t = typeAdapter.fromJson(string);
+        EALog.d(" Finally converted to : %1$s", t);
+        mEasyHttpCache.put(request, t, string.getBytes(UTF8), EasyHttpCache.headersOf(value));
+        return t;
     }
 
     static void closeQuietly(Closeable closeable) {
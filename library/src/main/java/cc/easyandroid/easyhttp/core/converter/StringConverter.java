@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 import cc.easyandroid.easycache.EasyHttpCache;
+import okhttp3.Headers;
 import okhttp3.Request;
 import okhttp3.ResponseBody;
 
@@ -33,18 +34,28 @@ public final class StringConverter implements Converter<java.lang.String> {
 
     @Override
     public String fromBody(ResponseBody value, Request request, boolean fromNetWork) throws IOException {
-        String string = value.string();
+        EasyHttpCache.Editor editor = fromNetWork ? mEasyHttpCache.edit(request, value) : null;
+        if (editor == null) {
+            String string = value.string();
+            parseCache(request, string, EasyHttpCache.headersOf(value), fromNetWork);
+            return string;
+        }
+        String string = null;
         try {
-            String mimeType = value.contentType().toString();
-            parseCache(request, string, mimeType, fromNetWork);
+            string = editor.tee(value).string();
             return string;
         } finally {
+            if (string != null) {
+                editor.commit(string);
+            } else {
+                editor.abort();
+            }
         }
     }
 
-    private void parseCache(Request request, String string, String mimeType, boolean fromNetWork) throws UnsupportedEncodingException {
+    private void parseCache(Request request, String string, Headers headers, boolean fromNetWork) throws UnsupportedEncodingException {
         if (fromNetWork) {
-            mEasyHttpCache.put(request, string, string.getBytes(UTF8));
+            mEasyHttpCache.put(request, string, string.getBytes(UTF8), headers);
         }
     }
 }
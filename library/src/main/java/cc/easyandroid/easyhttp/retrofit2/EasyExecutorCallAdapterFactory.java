@@ -8,6 +8,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 
 import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.volleycache.Cache;
 import cc.easyandroid.easycore.EAResult;
 import cc.easyandroid.easycore.EasyExecutor;
 import cc.easyandroid.easyhttp.core.CacheMode;
@@ -69,7 +70,8 @@ public class EasyExecutorCallAdapterFactory extends CallAdapter.Factory {
         final Retrofit retrofit;
         final Annotation[] annotations;
         final EasyHttpCache cache;
-        ;
+        private volatile okhttp3.Call revalidateCall;
+        private volatile okhttp3.Call conditionalCall;
 
         ExecutorCallbackCall(Type responseType, Annotation[] annotations, Call<T> delegate, Retrofit retrofit, EasyHttpCache cache) {
             this.delegate = delegate;
@@ -107,7 +109,13 @@ public class EasyExecutorCallAdapterFactory extends CallAdapter.Factory {
                             public void run() {
                                 final Response<T> easyResponse = execCacheRequest(request);
                                 if (easyResponse == null) {
-                                    exeRequest(callback, request, false);
+                                    // 缓存过期时带上ETag，没有变化时服务器返回304，不需要重新下载
+                                    Request conditional = cache.conditionalRequest(request);
+                                    if (conditional == request) {
+                                        exeRequest(callback, request, false);
+                                    } else {
+                                        exeConditionalRequest(callback, request, conditional);
+                                    }
                                 } else {
                                     EasyExecutor.getMainExecutor().execute(new Runnable() {
                                         @Override
@@ -119,6 +127,28 @@ public class EasyExecutorCallAdapterFactory extends CallAdapter.Factory {
                             }
                         });
                         return;
+                    case CacheMode.LOAD_CACHE_THEN_REVALIDATE:// 先缓存，需要刷新时再请求网络
+                        EasyExecutor.getThreadExecutor().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                Cache.Entry entry = cache.getEntry(request);
+                                final Response<T> easyResponse = entry != null ? convertCache(EasyHttpCache.toResponseBody(entry)) : null;
+                                if (easyResponse == null) {
+                                    exeRequest(callback, request, false);
+                                    return;
+                                }
+                                EasyExecutor.getMainExecutor().execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        callback.onResponse(delegate, easyResponse);
+                                    }
+                                });
+                                if (entry.refreshNeeded()) {
+                                    revalidate(callback, request, EasyHttpCache.checksum(entry));
+                                }
+                            }
+                        });
+                        return;
                     // ---------------------从缓存中取
                     // 如果缓存没有就跳出，执行网络请求
                     case CacheMode.LOAD_DEFAULT:
@@ -138,7 +168,10 @@ public class EasyExecutorCallAdapterFactory extends CallAdapter.Factory {
          * @return Response
          */
         private Response<T> execCacheRequest(Request request) {
-            ResponseBody responseBody = cache.get(request);
+            return convertCache(cache.get(request));
+        }
+
+        private Response<T> convertCache(ResponseBody responseBody) {
             if (responseBody != null) {
                 Converter<ResponseBody, T> converter = getResponseConverter(retrofit, responseType, annotations);
                 try {
@@ -202,7 +235,143 @@ public class EasyExecutorCallAdapterFactory extends CallAdapter.Factory {
             });
         }
 
-        private void cacheResponse(Response<T> response, Request request) {
+        /**
+         * 缓存过期后发条件请求，retrofit的Call不能修改请求头，所以直接用callFactory发起。
+         * 304时延长缓存时间后返回缓存，其他结果和{@link #exeRequest}一样处理
+         *
+         * @param conditional 带有If-None-Match、If-Modified-Since的请求
+         */
+        private void exeConditionalRequest(final Callback<T> callback, final Request request, Request conditional) {
+            okhttp3.Call conditionalCall = retrofit.callFactory().newCall(conditional);
+            this.conditionalCall = conditionalCall;
+            if (delegate.isCanceled()) {
+                conditionalCall.cancel();
+            }
+            conditionalCall.enqueue(new okhttp3.Callback() {
+                @Override
+                public void onFailure(okhttp3.Call call, IOException e) {
+                    deliverFailure(callback, e);
+                }
+
+                @Override
+                public void onResponse(okhttp3.Call call, okhttp3.Response rawResponse) {
+                    ResponseBody rawBody = rawResponse.body();
+                    try {
+                        if (call.isCanceled()) {
+                            deliverFailure(callback, new EasyException("Canceled"));
+                            return;
+                        }
+                        if (rawResponse.code() == 304) {// 没有变化，延长缓存时间后使用缓存
+                            Response<T> cacheResponse = cache.refresh(request) ? execCacheRequest(request) : null;
+                            if (cacheResponse != null) {
+                                deliverResponse(callback, cacheResponse);
+                            } else {// 缓存已经被删除，重新请求完整的数据
+                                exeRequest(callback, request, false);
+                            }
+                            return;
+                        }
+                        if (!rawResponse.isSuccessful()) {
+                            deliverFailure(callback, new EasyException());
+                            return;
+                        }
+                        Converter<ResponseBody, T> converter = getResponseConverter(retrofit, responseType, annotations);
+                        T t = converter.convert(rawBody);
+                        if (t instanceof EAResult && !((EAResult) t).isSuccess()) {
+                            EAResult eaResult = (EAResult) t;
+                            deliverFailure(callback, new EasyException(eaResult.getEADesc(), eaResult.getEACode()));
+                            return;
+                        }
+                        Response<T> response = Response.success(t, rawResponse);
+                        if (t instanceof EAResult) {
+                            cacheResponse(response, request);
+                        }
+                        deliverResponse(callback, response);
+                    } catch (IOException e) {
+                        deliverFailure(callback, e);
+                    } catch (RuntimeException e) {
+                        deliverFailure(callback, e);
+                    } finally {
+                        rawBody.close();
+                    }
+                }
+            });
+        }
+
+        private void deliverResponse(final Callback<T> callback, final Response<T> response) {
+            EasyExecutor.getMainExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onResponse(ExecutorCallbackCall.this, response);
+                }
+            });
+        }
+
+        private void deliverFailure(final Callback<T> callback, final Throwable t) {
+            EasyExecutor.getMainExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFailure(ExecutorCallbackCall.this, t);
+                }
+            });
+        }
+
+        /**
+         * 后台刷新缓存，只有内容变化时才再回调一次，失败时不回调。
+         * 直接用callFactory发起条件请求，304时只延长缓存时间
+         *
+         * @param oldChecksum 已经返回的缓存的校验和
+         */
+        private void revalidate(final Callback<T> callback, final Request request, final long oldChecksum) {
+            okhttp3.Call revalidateCall = retrofit.callFactory().newCall(cache.conditionalRequest(request));
+            this.revalidateCall = revalidateCall;
+            revalidateCall.enqueue(new okhttp3.Callback() {
+                @Override
+                public void onFailure(okhttp3.Call call, IOException e) {
+                    e.printStackTrace();
+                }
+
+                @Override
+                public void onResponse(okhttp3.Call call, okhttp3.Response rawResponse) {
+                    ResponseBody rawBody = rawResponse.body();
+                    try {
+                        if (call.isCanceled()) {
+                            return;
+                        }
+                        if (rawResponse.code() == 304) {// 没有变化，只延长缓存时间
+                            cache.refresh(request);
+                            return;
+                        }
+                        if (!rawResponse.isSuccessful()) {
+                            return;
+                        }
+                        Converter<ResponseBody, T> converter = getResponseConverter(retrofit, responseType, annotations);
+                        T t = converter.convert(rawBody);
+                        if (t == null || (t instanceof EAResult && !((EAResult) t).isSuccess())) {
+                            return;
+                        }
+                        final Response<T> response = Response.success(t, rawResponse);
+                        byte[] data = cacheResponse(response, request);
+                        if (data != null && EasyHttpCache.checksum(data) != oldChecksum) {
+                            EasyExecutor.getMainExecutor().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onResponse(ExecutorCallbackCall.this, response);
+                                }
+                            });
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        rawBody.close();
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return 缓存的数据，没有缓存时返回null
+         */
+        private byte[] cacheResponse(Response<T> response, Request request) {
             //这里要将数据缓存
             try {
                 if (response != null && response.body() != null) {
@@ -210,11 +379,14 @@ public class EasyExecutorCallAdapterFactory extends CallAdapter.Factory {
                     Buffer buffer = new Buffer();
                     RequestBody requestBody = converter.convert(response.body());
                     requestBody.writeTo(buffer);//对象转byte[]
-                    cache.put(request, response.body(), buffer.readByteArray());
+                    byte[] data = buffer.readByteArray();
+                    cache.put(request, response.body(), data, response.headers());
+                    return data;
                 }
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            return null;
         }
 
         @Override
@@ -230,6 +402,14 @@ public class EasyExecutorCallAdapterFactory extends CallAdapter.Factory {
         @Override
         public void cancel() {
             delegate.cancel();
+            okhttp3.Call revalidateCall = this.revalidateCall;
+            if (revalidateCall != null) {
+                revalidateCall.cancel();
+            }
+            okhttp3.Call conditionalCall = this.conditionalCall;
+            if (conditionalCall != null) {
+                conditionalCall.cancel();
+            }
         }
 
         @Override
@@ -0,0 +1,314 @@
+package cc.easyandroid.easymvp.call;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.NetworkResponseBody;
+import cc.easyandroid.easycore.EasyExecutor;
+import cc.easyandroid.easyhttp.core.Utils;
+import cc.easyandroid.easyhttp.core.converter.Converter;
+import cc.easyandroid.easylog.EALog;
+import cc.easyandroid.easyutils.NetWorkManager;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 预加载接口数据到{@link EasyHttpCache}，打开页面时直接命中缓存。
+ * 按优先级在后台下载，同时进行的请求数有上限；响应体边下载边写入缓存。还不需要刷新的缓存直接跳过，需要刷新的带上ETag发条件请求。
+ * 指定了{@link Converter}时和正常请求一样解析，结果可以保存时才写入缓存；没有指定时不能判断结果是否可用，
+ * 只写入还没有缓存的请求，已有的缓存只在返回304时延长缓存时间，不会被覆盖。
+ * <p>
+ * 只在有网络时预加载，移动网络下只预加载优先级不低于{@link #setMinPriorityOnMobile(int)}的请求；
+ * 内存紧张时({@link #onTrimMemory(int)})丢掉排队的请求并取消正在进行的请求
+ */
+public final class CachePrefetcher implements ComponentCallbacks2 {
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 5;
+    public static final int PRIORITY_HIGH = 10;
+    private static final int DEFAULT_MAX_CONCURRENT = 2;
+
+    private final Context context;
+    private final OkHttpClient client;
+    private final EasyHttpCache easyHttpCache;
+    private final NetworkState networkState;
+    /**
+     * 以下字段guarded by this
+     */
+    private final PriorityQueue<Task> queue = new PriorityQueue<>();
+    /**
+     * 排队和正在进行的请求的缓存key，相同的请求只预加载一次
+     */
+    private final Set<String> pendingKeys = new HashSet<>();
+    private final Set<okhttp3.Call> runningCalls = new HashSet<>();
+    private int runningCount;
+    private long sequence;
+    /**
+     * 每次{@link #cancelAll()}加一，已经出队但还没发出的请求不再发出
+     */
+    private long generation;
+    private int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+    private int minPriorityOnMobile = PRIORITY_HIGH;
+
+    /**
+     * 创建后会注册到Application接收onTrimMemory，不再使用时调用{@link #shutdown()}
+     */
+    public CachePrefetcher(final Context context, OkHttpClient client, EasyHttpCache easyHttpCache) {
+        this(context, client, easyHttpCache, new NetworkState() {
+            @Override
+            public int getNetWorkType() {
+                return NetWorkManager.getNetWorkType(context.getApplicationContext());
+            }
+        });
+    }
+
+    /**
+     * 单元测试中指定网络类型
+     */
+    CachePrefetcher(Context context, OkHttpClient client, EasyHttpCache easyHttpCache, NetworkState networkState) {
+        this.context = context.getApplicationContext();
+        this.client = client;
+        this.easyHttpCache = easyHttpCache;
+        this.networkState = networkState;
+        this.context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * 同时进行的请求数，默认2个，不影响正常的请求
+     */
+    public synchronized void setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent <= 0");
+        }
+        this.maxConcurrent = maxConcurrent;
+        schedule();
+    }
+
+    /**
+     * 移动网络下只预加载不低于这个优先级的请求，默认{@link #PRIORITY_HIGH}
+     */
+    public synchronized void setMinPriorityOnMobile(int minPriorityOnMobile) {
+        this.minPriorityOnMobile = minPriorityOnMobile;
+    }
+
+    public void prefetch(Request request) {
+        prefetch(request, PRIORITY_NORMAL);
+    }
+
+    /**
+     * 加入预加载队列，优先级高的先下载，相同优先级按加入的顺序；不解析结果，已有的缓存不会被覆盖
+     *
+     * @param priority 比如{@link #PRIORITY_HIGH}，数字越大越优先
+     */
+    public void prefetch(Request request, int priority) {
+        prefetch(request, null, priority);
+    }
+
+    /**
+     * 加入预加载队列，用converter解析结果，和正常请求一样只有结果可以保存时才写入缓存
+     *
+     * @param converter 比如EasyHttp.getConverterFactory().getGsonConverter(type)，为null时不解析
+     * @param priority  比如{@link #PRIORITY_HIGH}，数字越大越优先
+     */
+    public void prefetch(Request request, Converter<?> converter, int priority) {
+        String key = easyHttpCache.keyFor(request);
+        if (key == null) {// 不能缓存的请求
+            return;
+        }
+        synchronized (this) {
+            if (!pendingKeys.add(key)) {
+                return;
+            }
+            queue.add(new Task(request, key, converter, priority, sequence++, generation));
+            schedule();
+        }
+    }
+
+    public void prefetch(Iterable<Request> requests, int priority) {
+        for (Request request : requests) {
+            prefetch(request, priority);
+        }
+    }
+
+    /**
+     * 丢掉排队的请求并取消正在进行的请求
+     */
+    public void cancelAll() {
+        okhttp3.Call[] calls;
+        synchronized (this) {
+            for (Task task : queue) {
+                pendingKeys.remove(task.key);
+            }
+            queue.clear();
+            generation++;
+            calls = runningCalls.toArray(new okhttp3.Call[runningCalls.size()]);
+        }
+        for (okhttp3.Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    /**
+     * 取消所有请求并不再接收onTrimMemory
+     */
+    public void shutdown() {
+        cancelAll();
+        context.unregisterComponentCallbacks(this);
+    }
+
+    /**
+     * 排队和正在进行的请求数
+     */
+    public synchronized int getPendingCount() {
+        return pendingKeys.size();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            cancelAll();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        cancelAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * 在还有空位时启动排队的请求，guarded by this
+     */
+    private void schedule() {
+        while (runningCount < maxConcurrent && !queue.isEmpty()) {
+            final Task task = queue.poll();
+            if (!isAllowed(task)) {
+                pendingKeys.remove(task.key);
+                continue;
+            }
+            runningCount++;
+            EasyExecutor.getThreadExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(task);
+                    } finally {
+                        synchronized (CachePrefetcher.this) {
+                            runningCount--;
+                            pendingKeys.remove(task.key);
+                            schedule();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private boolean isAllowed(Task task) {
+        switch (networkState.getNetWorkType()) {
+            case NetWorkManager.netWorkType.TYPE_NO_NETWORK:
+                return false;
+            case NetWorkManager.netWorkType.TYPE_MOBILE:
+                return task.priority >= minPriorityOnMobile;
+            default:
+                return true;
+        }
+    }
+
+    private void fetch(Task task) {
+        if (easyHttpCache.isFresh(task.request)) {
+            return;
+        }
+        Request conditional = easyHttpCache.conditionalRequest(task.request);
+        if (task.converter == null && conditional == task.request && easyHttpCache.contains(task.request)) {
+            return;// 没有ETag和Last-Modified，下载下来也不会覆盖已有的缓存
+        }
+        okhttp3.Call call = client.newCall(conditional);
+        synchronized (this) {
+            if (task.generation != generation) {
+                return;
+            }
+            runningCalls.add(call);
+        }
+        Response response = null;
+        try {
+            response = call.execute();
+            if (response.code() == 304) {// 没有变化，只延长缓存时间
+                easyHttpCache.refresh(task.request);
+                return;
+            }
+            if (!response.isSuccessful() || response.code() == 204 || response.code() == 205) {
+                return;
+            }
+            ResponseBody body = new NetworkResponseBody(response.body(), response.headers());
+            if (task.converter != null) {// 解析时写入缓存，结果不能保存时放弃
+                task.converter.fromBody(body, task.request, true);
+                return;
+            }
+            if (easyHttpCache.contains(task.request)) {// 不能判断结果是否可用，不覆盖已有的缓存
+                return;
+            }
+            EasyHttpCache.Editor editor = easyHttpCache.edit(task.request, body);
+            if (editor == null) {
+                return;
+            }
+            editor.tee(body);
+            editor.commit();
+        } catch (IOException e) {
+            EALog.d("easycache prefetch failed: %1$s", e.toString());
+        } catch (RuntimeException e) {// 数据和类型不匹配时Gson会抛出JsonSyntaxException
+            EALog.d("easycache prefetch failed: %1$s", e.toString());
+        } finally {
+            if (response != null) {
+                Utils.closeQuietly(response.body());
+            }
+            synchronized (this) {
+                runningCalls.remove(call);
+            }
+        }
+    }
+
+    /**
+     * 当前的网络类型，取值为{@link NetWorkManager.netWorkType}中的常量
+     */
+    interface NetworkState {
+        int getNetWorkType();
+    }
+
+    private static final class Task implements Comparable<Task> {
+        final Request request;
+        final String key;
+        final Converter<?> converter;
+        final int priority;
+        final long sequence;
+        final long generation;
+
+        Task(Request request, String key, Converter<?> converter, int priority, long sequence, long generation) {
+            this.request = request;
+            this.key = key;
+            this.converter = converter;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -18,9 +18,12 @@ package cc.easyandroid.easymvp.call;
 import android.text.TextUtils;
 
 import java.io.IOException;
+import java.lang.reflect.Type;
 import java.util.Locale;
 
 import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.NetworkResponseBody;
+import cc.easyandroid.easycache.volleycache.Cache;
 import cc.easyandroid.easycore.EasyCall;
 import cc.easyandroid.easycore.EasyExecutor;
 import cc.easyandroid.easycore.EasyHttpStateCallback;
@@ -28,6 +31,7 @@ import cc.easyandroid.easycore.EasyResponse;
 import cc.easyandroid.easyhttp.core.CacheMode;
 import cc.easyandroid.easyhttp.core.Utils;
 import cc.easyandroid.easyhttp.core.converter.Converter;
+import cc.easyandroid.easylog.EALog;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Protocol;
@@ -46,33 +50,56 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
     private boolean executed; // Guarded by this.
     private volatile boolean canceled;
     protected final EasyHttpCache mEasyHttpCache;
+    private final RequestCoalescer coalescer;
+    private final Type responseType;
+    private volatile RequestCoalescer.Flight<T> flight;
+    private EasyHttpStateCallback<T> flightCallback;
 
     public OkHttpEasyCall(OkHttpClient client, Converter<T> responseConverter, Request request, EasyHttpCache easyHttpCache) {
+        this(client, responseConverter, request, easyHttpCache, null, null);
+    }
+
+    /**
+     * @param coalescer    合并相同的请求，null表示不合并
+     * @param responseType 解析的类型，用于区分请求
+     */
+    public OkHttpEasyCall(OkHttpClient client, Converter<T> responseConverter, Request request, EasyHttpCache easyHttpCache, RequestCoalescer coalescer, Type responseType) {
         this.client = client;
         this.request = request;
         this.responseConverter = responseConverter;
         this.mEasyHttpCache = easyHttpCache;
+        this.coalescer = coalescer;
+        this.responseType = responseType;
     }
 
     public Request createRequest() {
         return request;
     }
 
-    private EasyResponse<T> execCacheRequest(Request request) {
+    private EasyResponse<T> execCacheRequest(final Request request) {
         try {
-            ResponseBody responseBody = mEasyHttpCache.get(request);
-            if (responseBody == null) {
+            T body = mEasyHttpCache.getParsed(request, responseType, new EasyHttpCache.Parser<T>() {
+                @Override
+                public T parse(ResponseBody responseBody) throws IOException {
+                    return parseCacheResponse(request, responseBody).body();
+                }
+            });
+            if (body == null) {
                 return null;
             }
-            okhttp3.Response rawResponse = new okhttp3.Response.Builder()//
-                    .code(200).request(request).protocol(Protocol.HTTP_1_1).body(responseBody).build();
-            return parseResponse(rawResponse, request, false, false);
+            return EasyResponse.success(body);
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    private EasyResponse<T> parseCacheResponse(Request request, ResponseBody responseBody) throws IOException {
+        okhttp3.Response rawResponse = new okhttp3.Response.Builder()//
+                .code(200).request(request).protocol(Protocol.HTTP_1_1).body(responseBody).build();
+        return parseResponse(rawResponse, request, false, false);
+    }
+
     @Override
     public void enqueue(final EasyHttpStateCallback<T> callback, String tag) {
         synchronized (this) {
@@ -107,7 +134,8 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
                         public void run() {
                             final EasyResponse<T> easyResponse = execCacheRequest(request);
                             if (easyResponse == null) {
-                                exeRequest(callback, request, false);
+                                // 缓存过期时带上ETag，没有变化时服务器返回304，不需要重新下载
+                                exeRequest(callback, mEasyHttpCache.conditionalRequest(request), false);
                             } else {
                                 EasyExecutor.getMainExecutor().execute(new Runnable() {
                                     @Override
@@ -119,6 +147,36 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
                         }
                     });
                     return;
+                case CacheMode.LOAD_CACHE_THEN_REVALIDATE:// 先缓存，需要刷新时再请求网络
+                    EasyExecutor.getThreadExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            Cache.Entry entry = mEasyHttpCache.getEntry(request);
+                            EasyResponse<T> cacheResponse = null;
+                            if (entry != null) {
+                                try {
+                                    cacheResponse = parseCacheResponse(request, EasyHttpCache.toResponseBody(entry));
+                                } catch (Exception e) {
+                                    e.printStackTrace();
+                                }
+                            }
+                            if (cacheResponse == null) {
+                                exeRequest(callback, mEasyHttpCache.conditionalRequest(request), false);
+                                return;
+                            }
+                            final EasyResponse<T> easyResponse = cacheResponse;
+                            EasyExecutor.getMainExecutor().execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onResponse(easyResponse);
+                                }
+                            });
+                            if (entry.refreshNeeded()) {
+                                revalidate(callback, request, EasyHttpCache.checksum(entry));
+                            }
+                        }
+                    });
+                    return;
                 // ---------------------从缓存中取
                 // 如果缓存没有就跳出，执行网络请求
                 case CacheMode.LOAD_DEFAULT:
@@ -131,7 +189,27 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
         exeRequest(callback, request, false);
     }
 
-    private void exeRequest(final EasyHttpStateCallback<T> callback, final Request request, final boolean loadnetElseCache) {
+    void exeRequest(final EasyHttpStateCallback<T> callback, final Request request, final boolean loadnetElseCache) {
+        String key = null;
+        if (coalescer != null) {
+            String cacheKey = mEasyHttpCache != null ? mEasyHttpCache.keyFor(request) : null;
+            key = coalescer.keyFor(request, cacheKey, responseType, loadnetElseCache);
+        }
+        if (key != null) {
+            RequestCoalescer.Flight<T> flight = coalescer.join(key, callback);
+            synchronized (this) {
+                this.flight = flight;
+                this.flightCallback = callback;
+            }
+            if (canceled) {
+                flight.leave(callback);
+                return;
+            }
+            if (flight.claimStart()) {
+                flight.start(new OkHttpEasyCall<>(client, responseConverter, request, mEasyHttpCache), loadnetElseCache);
+            }
+            return;
+        }
         okhttp3.Call rawCall;
         try {
             rawCall = client.newCall(request);
@@ -209,6 +287,57 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
         });
     }
 
+    /**
+     * 后台刷新缓存，只有内容变化时才再回调一次，失败时不回调
+     *
+     * @param oldChecksum 已经返回的缓存的校验和
+     */
+    private void revalidate(final EasyHttpStateCallback<T> callback, final Request request, final long oldChecksum) {
+        if (canceled) {
+            return;
+        }
+        okhttp3.Call rawCall = client.newCall(mEasyHttpCache.conditionalRequest(request));
+        this.rawCall = rawCall;
+        rawCall.enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(okhttp3.Call call, IOException e) {
+                EALog.d("easycache revalidate failed: %1$s", e.toString());
+            }
+
+            @Override
+            public void onResponse(okhttp3.Call call, okhttp3.Response rawResponse) {
+                if (canceled) {
+                    Utils.closeQuietly(rawResponse.body());
+                    return;
+                }
+                if (rawResponse.code() == 304) {// 没有变化，只延长缓存时间
+                    Utils.closeQuietly(rawResponse.body());
+                    mEasyHttpCache.refresh(request);
+                    return;
+                }
+                final EasyResponse<T> easyResponse;
+                try {
+                    easyResponse = parseResponse(rawResponse, request, true, true);
+                } catch (Throwable e) {
+                    EALog.d("easycache revalidate failed: %1$s", e.toString());
+                    return;
+                }
+                Cache.Entry entry = mEasyHttpCache.getEntry(request);//刷新成功后已经写入缓存
+                if (entry == null || EasyHttpCache.checksum(entry) == oldChecksum) {
+                    return;
+                }
+                EasyExecutor.getMainExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!canceled) {
+                            callback.onResponse(easyResponse);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     @Deprecated
     public EasyResponse<T> execute() throws IOException {
         synchronized (this) {
@@ -237,6 +366,7 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
                     }
                     return easyResponse;
                 case CacheMode.LOAD_CACHE_ELSE_NETWORK:// 先缓存再网络
+                case CacheMode.LOAD_CACHE_THEN_REVALIDATE:// 同步执行时不能回调两次，只返回缓存
                     // ---------------------充缓存中取
                     easyResponse = execCacheRequest(request);
                     if (easyResponse != null) {
@@ -272,6 +402,15 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
         rawResponse = rawResponse.newBuilder().body(new NoContentResponseBody(rawBody.contentType(), rawBody.contentLength())).build();
 
         int code = rawResponse.code();
+        if (code == 304 && fromNetWork) {// 条件请求，缓存没有变化，延长缓存时间后使用缓存
+            Utils.closeQuietly(rawBody);
+            if (mEasyHttpCache.refresh(request)) {
+                EasyResponse<T> cacheResponse = execCacheRequest(request);
+                if (cacheResponse != null) {
+                    return cacheResponse;
+                }
+            }
+        }
         if (code < 200 || code >= 300) {
             if (!ifFailedToLoadTheCache) {
                 try {
@@ -293,8 +432,9 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
 
         ExceptionCatchingRequestBody catchingBody = new ExceptionCatchingRequestBody(rawBody);
         try {
-            T body = responseConverter.fromBody(catchingBody, request, fromNetWork);
-            return EasyResponse.success(body);
+            ResponseBody body = fromNetWork ? new NetworkResponseBody(catchingBody, rawResponse.headers()) : catchingBody;
+            T result = responseConverter.fromBody(body, request, fromNetWork);
+            return EasyResponse.success(result);
         } catch (RuntimeException e) {
             // If the underlying source threw an exception, propagate that
             // rather than indicating it was
@@ -307,6 +447,15 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
     @Override
     public void cancel() {
         canceled = true;
+        RequestCoalescer.Flight<T> flight;
+        EasyHttpStateCallback<T> flightCallback;
+        synchronized (this) {
+            flight = this.flight;
+            flightCallback = this.flightCallback;
+        }
+        if (flight != null) {
+            flight.leave(flightCallback);
+        }
         okhttp3.Call rawCall = this.rawCall;
         if (rawCall != null) {
             rawCall.cancel();
@@ -320,7 +469,7 @@ public class OkHttpEasyCall<T> implements EasyCall<T> {
 
     @Override
     public EasyCall<T> clone() {
-        return new OkHttpEasyCall<>(client, responseConverter, request,mEasyHttpCache);
+        return new OkHttpEasyCall<>(client, responseConverter, request, mEasyHttpCache, coalescer, responseType);
     }
 
     @Override
@@ -0,0 +1,138 @@
+package cc.easyandroid.easymvp.call;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cc.easyandroid.easycore.EasyHttpStateCallback;
+import cc.easyandroid.easycore.EasyResponse;
+import okhttp3.Request;
+
+/**
+ * 合并正在进行的相同GET请求，只发一次网络请求、只解析一次，结果回调给所有调用者。
+ * 解析的结果是共享的，回调中不要修改它。
+ * 某个调用者cancel只是不再回调它，所有调用者都cancel后才会取消网络请求。
+ */
+public final class RequestCoalescer {
+    /**
+     * 正在进行的请求，guarded by this
+     */
+    private final Map<String, Flight<?>> mFlights = new HashMap<>();
+
+    /**
+     * 只合并GET请求
+     *
+     * @param cacheKey 请求的缓存key，包含了区分返回内容的请求头，null时使用url
+     * @return 不能合并时返回null
+     */
+    String keyFor(Request request, String cacheKey, Type responseType, boolean loadnetElseCache) {
+        if (responseType == null || !"GET".equals(request.method())) {
+            return null;
+        }
+        return (cacheKey != null ? cacheKey : request.url().toString()) + "|" + responseType + "|" + loadnetElseCache;
+    }
+
+    /**
+     * 加入相同key的请求，没有时新建一个，新建的需要调用者用{@link Flight#start(OkHttpEasyCall)}发起
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> Flight<T> join(String key, EasyHttpStateCallback<T> callback) {
+        Flight<T> flight = (Flight<T>) mFlights.get(key);
+        if (flight == null) {
+            flight = new Flight<>(key);
+            mFlights.put(key, flight);
+        }
+        flight.callbacks.add(callback);
+        return flight;
+    }
+
+    /**
+     * 正在进行的请求数
+     */
+    public synchronized int getInFlightCount() {
+        return mFlights.size();
+    }
+
+    final class Flight<T> implements EasyHttpStateCallback<T> {
+        private final String key;
+        private final List<EasyHttpStateCallback<T>> callbacks = new ArrayList<>();// guarded by RequestCoalescer.this
+        private OkHttpEasyCall<T> call;// guarded by RequestCoalescer.this
+        private boolean started;// guarded by RequestCoalescer.this
+        private boolean finished;// guarded by RequestCoalescer.this
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return 第一个调用者返回true，由它发起网络请求
+         */
+        boolean claimStart() {
+            synchronized (RequestCoalescer.this) {
+                if (started) {
+                    return false;
+                }
+                started = true;
+                return true;
+            }
+        }
+
+        /**
+         * 用一个不参与合并的call发起网络请求，结果回调给这个Flight
+         */
+        void start(OkHttpEasyCall<T> call, boolean loadnetElseCache) {
+            synchronized (RequestCoalescer.this) {
+                this.call = call;
+                if (finished) {// 所有调用者已经cancel
+                    call.cancel();
+                }
+            }
+            call.exeRequest(this, call.request(), loadnetElseCache);
+        }
+
+        /**
+         * 调用者cancel，最后一个调用者离开时取消网络请求
+         */
+        void leave(EasyHttpStateCallback<T> callback) {
+            OkHttpEasyCall<T> call;
+            synchronized (RequestCoalescer.this) {
+                if (finished || !callbacks.remove(callback) || !callbacks.isEmpty()) {
+                    return;
+                }
+                finished = true;
+                mFlights.remove(key);
+                call = this.call;
+            }
+            if (call != null) {
+                call.cancel();
+            }
+        }
+
+        private List<EasyHttpStateCallback<T>> finish() {
+            synchronized (RequestCoalescer.this) {
+                if (finished) {
+                    return new ArrayList<>();
+                }
+                finished = true;
+                mFlights.remove(key);
+                return new ArrayList<>(callbacks);
+            }
+        }
+
+        @Override
+        public void onResponse(EasyResponse<T> easyResponse) {
+            for (EasyHttpStateCallback<T> callback : finish()) {
+                callback.onResponse(easyResponse);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            for (EasyHttpStateCallback<T> callback : finish()) {
+                callback.onFailure(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package cc.easyandroid.easycache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BitmapCacheTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private EasyCacheUtils diskCache;
+    private BitmapCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        diskCache = new EasyCacheUtils(temporaryFolder.newFolder("bitmaps"), 1);
+        cache = new BitmapCache(diskCache, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        diskCache.close();
+    }
+
+    @Test
+    public void sampleSizeKeepsAtLeastTheRequestedSize() {
+        assertEquals(1, BitmapCache.calculateInSampleSize(1000, 800, 0, 0));
+        assertEquals(1, BitmapCache.calculateInSampleSize(1000, 800, 1000, 800));
+        assertEquals(2, BitmapCache.calculateInSampleSize(1000, 800, 500, 400));
+        assertEquals(2, BitmapCache.calculateInSampleSize(1000, 800, 300, 300));
+        assertEquals(4, BitmapCache.calculateInSampleSize(1000, 800, 250, 0));
+        assertEquals(8, BitmapCache.calculateInSampleSize(1000, 800, 0, 100));
+    }
+
+    @Test
+    public void encodedImagesAreStoredUnchanged() {
+        byte[] jpeg = {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 1, 2, 3};
+        cache.putEncoded("bytes", jpeg);
+        assertArrayEquals(jpeg, diskCache.getAsBytes("bytes"));
+        cache.putEncoded("stream", new ByteArrayInputStream(jpeg));
+        assertArrayEquals(jpeg, diskCache.getAsBytes("stream"));
+
+        cache.remove("bytes");
+        assertNull(diskCache.getAsBytes("bytes"));
+    }
+}
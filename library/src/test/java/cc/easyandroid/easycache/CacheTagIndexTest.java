@@ -0,0 +1,118 @@
+package cc.easyandroid.easycache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheTagIndexTest {
+    private static final CacheTagIndex.Filter ALL = new CacheTagIndex.Filter() {
+        @Override
+        public boolean contains(String key) {
+            return true;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private CacheTagIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(temporaryFolder.getRoot(), "tags");
+        index = new CacheTagIndex(file);
+    }
+
+    @Test
+    public void removeTagReturnsItsKeysAndDropsTheirOtherTags() {
+        index.put("k1", Arrays.asList("orders", "user"));
+        index.put("k2", Arrays.asList("orders"));
+        index.put("k3", Arrays.asList("user"));
+        assertEquals(new HashSet<>(Arrays.asList("k1", "k2")), index.removeTag("orders"));
+        assertEquals(Collections.singleton("k3"), index.removeTag("user"));
+        assertTrue(index.removeTag("orders").isEmpty());
+    }
+
+    @Test
+    public void rewriteReplacesHeaderTagsButKeepsAddedTags() {
+        index.put("k", Arrays.asList("old"));
+        index.add("k", "added");
+        index.put("k", Arrays.asList("new"));
+        assertTrue(index.removeTag("old").isEmpty());
+        assertEquals(Collections.singleton("k"), index.removeTag("added"));
+    }
+
+    @Test
+    public void removedKeysLoseAddedTags() {
+        index.add("k", "added");
+        index.remove("k");
+        index.put("k", Collections.<String>emptyList());
+        assertTrue(index.removeTag("added").isEmpty());
+    }
+
+    @Test
+    public void reloadKeepsTagsAndTheirSource() {
+        index.put("k1", Arrays.asList("header"));
+        index.add("k1", "added");
+        index.put("k2", Arrays.asList("header"));
+        index.write();
+
+        CacheTagIndex reloaded = new CacheTagIndex(file);
+        reloaded.load(new CacheTagIndex.Filter() {
+            @Override
+            public boolean contains(String key) {
+                return !"k2".equals(key);
+            }
+        });
+        reloaded.put("k1", Collections.<String>emptyList());
+        assertTrue(reloaded.removeTag("header").isEmpty());
+        assertEquals(Collections.singleton("k1"), reloaded.removeTag("added"));
+    }
+
+    @Test
+    public void otherVersionsLoadNothing() throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x45435447);
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeUTF("k");
+            out.writeInt(1);
+            out.writeUTF("tag");
+        } finally {
+            out.close();
+        }
+        index.load(ALL);
+        assertTrue(index.removeTag("tag").isEmpty());
+    }
+
+    @Test
+    public void corruptCountsLoadNothing() throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x45435447);
+            out.writeInt(2);
+            out.writeInt(1);
+            out.writeUTF("k");
+            out.writeInt(Integer.MAX_VALUE);
+        } finally {
+            out.close();
+        }
+        index.load(ALL);
+        index.put("other", Arrays.asList("tag"));
+        assertEquals(Collections.singleton("other"), index.removeTag("tag"));
+    }
+}
@@ -0,0 +1,54 @@
+package cc.easyandroid.easycache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CountingCacheMetricsTest {
+    @Test
+    public void countersAreKeptPerCache() {
+        CountingCacheMetrics metrics = new CountingCacheMetrics();
+        metrics.onHit(CacheMetrics.HTTP);
+        metrics.onHit(CacheMetrics.HTTP);
+        metrics.onHit(CacheMetrics.HTTP);
+        metrics.onMiss(CacheMetrics.HTTP);
+        metrics.onExpired(CacheMetrics.HTTP, false);
+        metrics.onExpired(CacheMetrics.HTTP, true);
+        metrics.onEvicted(CacheMetrics.DISK, 2, 100);
+        metrics.onRead(CacheMetrics.DISK, 10);
+        metrics.onWritten(CacheMetrics.DISK, 20);
+
+        CountingCacheMetrics.Stats http = metrics.getStats(CacheMetrics.HTTP);
+        assertEquals(3, http.getHitCount());
+        assertEquals(1, http.getMissCount());
+        assertEquals(0.75, http.getHitRate(), 0);
+        assertEquals(1, http.getSoftExpirationCount());
+        assertEquals(1, http.getHardExpirationCount());
+        assertEquals(0, http.getEvictionCount());
+
+        CountingCacheMetrics.Stats disk = metrics.getStats(CacheMetrics.DISK);
+        assertEquals(2, disk.getEvictionCount());
+        assertEquals(100, disk.getEvictedBytes());
+        assertEquals(10, disk.getBytesRead());
+        assertEquals(20, disk.getBytesWritten());
+        assertEquals(0, disk.getHitRate(), 0);
+        assertEquals(2, metrics.getAllStats().size());
+    }
+
+    @Test
+    public void latenciesAreBucketedByPowersOfTwoMicros() {
+        CountingCacheMetrics metrics = new CountingCacheMetrics();
+        CountingCacheMetrics.Histogram histogram = metrics.getStats(CacheMetrics.HTTP).getGetLatency();
+        assertEquals(0, histogram.percentile(0.5));
+        metrics.onGetLatency(CacheMetrics.HTTP, 500);// 不到1微秒
+        metrics.onGetLatency(CacheMetrics.HTTP, 3000);// 3微秒，[2,4)
+        metrics.onGetLatency(CacheMetrics.HTTP, 3000);
+        metrics.onGetLatency(CacheMetrics.HTTP, 1000 * 1000);// 1毫秒
+        assertEquals(4, histogram.getTotalCount());
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(2, histogram.getCount(2));
+        assertEquals(4, histogram.percentile(0.5));
+        assertEquals(1024, histogram.percentile(1));
+        assertEquals(0, metrics.getStats(CacheMetrics.HTTP).getPutLatency().getTotalCount());
+    }
+}
@@ -0,0 +1,87 @@
+package cc.easyandroid.easycache;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultCacheKeyStrategyTest {
+    private static final MediaType FORM = MediaType.parse("application/x-www-form-urlencoded");
+
+    private final DefaultCacheKeyStrategy strategy = new DefaultCacheKeyStrategy();
+
+    @Test
+    public void sortedUrlsAreKeptAsTheyAre() {
+        String url = "http://example.com/list?a=1&b=2";
+        assertEquals(url, strategy.keyFor(get(url)));
+    }
+
+    @Test
+    public void parametersAreSortedAndFragmentsDropped() {
+        String key = strategy.keyFor(get("http://example.com/list?a=1&b=2"));
+        assertEquals(key, strategy.keyFor(get("http://example.com/list?b=2&a=1")));
+        assertEquals(key, strategy.keyFor(get("http://example.com/list?a=1&b=2#top")));
+        // 同名参数保持原来的顺序
+        assertEquals("http://example.com/list?a=2&a=1&b=3",
+                DefaultCacheKeyStrategy.canonicalUrl(HttpUrl.parse("http://example.com/list?b=3&a=2&a=1")));
+    }
+
+    @Test
+    public void postBodiesAreHashedIntoTheKey() {
+        String key = strategy.keyFor(post("page=1"));
+        assertTrue(key.startsWith("POST http://example.com/list#"));
+        assertEquals(key, strategy.keyFor(post("page=1")));
+        assertNotEquals(key, strategy.keyFor(post("page=2")));
+        assertNotEquals(key, strategy.keyFor(new Request.Builder().url("http://example.com/list")
+                .post(RequestBody.create(MediaType.parse("text/plain"), "page=1")).build()));
+    }
+
+    @Test
+    public void largeOrUnknownBodiesAreNotCached() {
+        byte[] large = new byte[(int) DefaultCacheKeyStrategy.MAX_BODY_BYTES + 1];
+        assertNull(strategy.keyFor(new Request.Builder().url("http://example.com/upload")
+                .post(RequestBody.create(FORM, large)).build()));
+        assertNull(strategy.keyFor(new Request.Builder().url("http://example.com/upload")
+                .post(new RequestBody() {
+                    @Override
+                    public MediaType contentType() {
+                        return FORM;
+                    }
+
+                    @Override
+                    public void writeTo(BufferedSink sink) throws IOException {
+                        sink.writeUtf8("streamed");
+                    }
+                }).build()));
+    }
+
+    @Test
+    public void varyHeadersSeparateTheEntries() {
+        DefaultCacheKeyStrategy vary = new DefaultCacheKeyStrategy("Accept-Language");
+        String url = "http://example.com/list";
+        assertEquals(url, vary.keyFor(get(url)));
+        String zh = vary.keyFor(new Request.Builder().url(url).header("Accept-Language", "zh").build());
+        assertEquals(url + "|accept-language=zh", zh);
+        assertNotEquals(zh, vary.keyFor(new Request.Builder().url(url).header("Accept-Language", "en").build()));
+        // 默认不区分请求头
+        assertEquals(url, strategy.keyFor(new Request.Builder().url(url).header("Accept-Language", "zh").build()));
+    }
+
+    private static Request get(String url) {
+        return new Request.Builder().url(url).build();
+    }
+
+    private static Request post(String body) {
+        return new Request.Builder().url("http://example.com/list").post(RequestBody.create(FORM, body)).build();
+    }
+}
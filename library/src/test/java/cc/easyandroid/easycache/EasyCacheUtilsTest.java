@@ -0,0 +1,134 @@
+package cc.easyandroid.easycache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import cc.easyandroid.easycache.serializer.BinarySerializer;
+import cc.easyandroid.easycache.serializer.CacheSerializer;
+import cc.easyandroid.easycache.serializer.GsonSerializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class EasyCacheUtilsTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private EasyCacheUtils mCache;
+
+	@Before
+	public void setUp() throws IOException {
+		mCache = new EasyCacheUtils(temporaryFolder.newFolder("cache"), 1);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		mCache.close();
+	}
+
+	@Test
+	public void typedValuesRoundTrip() {
+		List<Object> value = Arrays.<Object>asList("a", 1, 2L, Arrays.<Object>asList(true, 1.5d));
+		mCache.put("binary", value, BinarySerializer.<List<Object>>get());
+		assertEquals(value, mCache.get("binary", BinarySerializer.<List<Object>>get()));
+
+		GsonSerializer<Item> gson = new GsonSerializer<>(Item.class);
+		Item item = new Item();
+		item.name = "名字";
+		item.count = 3;
+		mCache.put("gson", item, gson);
+		Item read = mCache.get("gson", gson);
+		assertEquals("名字", read.name);
+		assertEquals(3, read.count);
+
+		assertNull(mCache.get("missing", gson));
+	}
+
+	@Test
+	public void failedSerializerDoesNotLockTheKey() {
+		mCache.put("key", "old", BinarySerializer.<String>get());
+		try {
+			mCache.put("key", "value", new CacheSerializer<String>() {
+				@Override
+				public void write(String value, OutputStream out) {
+					throw new IllegalArgumentException("unsupported");
+				}
+
+				@Override
+				public String read(InputStream in) {
+					throw new UnsupportedOperationException();
+				}
+			});
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		// the failed write was aborted, the previous value is still there.
+		assertEquals("old", mCache.get("key", BinarySerializer.<String>get()));
+		mCache.put("key", "value", BinarySerializer.<String>get());
+		assertEquals("value", mCache.get("key", BinarySerializer.<String>get()));
+	}
+
+	static class Item {
+		String name;
+		int count;
+	}
+
+	@Test
+	public void expiredEntriesAreNotFreshAndGetSwept() throws InterruptedException {
+		mCache.put("expiring", "value", 1L);
+		mCache.put("forever", "value");
+		Thread.sleep(20);
+
+		assertNull(mCache.getAsStringIfFresh("expiring"));
+		assertEquals("value", mCache.getAsString("expiring"));
+		assertEquals("value", mCache.getAsStringIfFresh("forever"));
+		assertEquals(0L, mCache.getExpiry("forever"));
+		assertEquals(-1L, mCache.getExpiry("missing"));
+
+		assertEquals(1, mCache.sweepExpired());
+		assertNull(mCache.getAsString("expiring"));
+		assertEquals("value", mCache.getAsString("forever"));
+	}
+
+	@Test
+	public void rewriteReplacesTheExpiry() throws InterruptedException {
+		mCache.put("key", "old", 1L);
+		mCache.put("key", "new", 60 * 60 * 1000L);
+		Thread.sleep(20);
+		assertEquals("new", mCache.getAsStringIfFresh("key"));
+		assertEquals(0, mCache.sweepExpired());
+	}
+
+	@Test
+	public void closingTheReturnedStreamReleasesAllFiles() throws IOException {
+		File fds = new File("/proc/self/fd");
+		assumeTrue(fds.isDirectory());
+		mCache.put("key", "value", 60 * 1000L);
+		// warm up lazily opened descriptors before counting.
+		mCache.get("key").close();
+		int before = fds.list().length;
+		for (int i = 0; i < 50; i++) {
+			mCache.get("key").close();
+			mCache.getIfFresh("key").close();
+			FileChannel channel = mCache.getChannel("key");
+			channel.close();
+			mCache.getAsString("key");
+			mCache.getAsBytes("key");
+		}
+		assertTrue(fds.list().length - before < 5);
+	}
+}
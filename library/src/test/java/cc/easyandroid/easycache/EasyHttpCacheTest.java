@@ -0,0 +1,302 @@
+package cc.easyandroid.easycache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import cc.easyandroid.easycache.volleycache.Cache;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EasyHttpCacheTest {
+    private static final String URL = "http://example.com/list";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private EasyHttpCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = TestContext.cacheBuilder(temporaryFolder.newFolder("cache")).build();
+    }
+
+    @Test
+    public void conditionalRequestCarriesTheStoredValidators() throws IOException {
+        Request request = request(60);
+        assertSame(request, cache.conditionalRequest(request));
+        cache.put(request, "body", "body".getBytes(), new Headers.Builder()
+                .add("ETag", "\"v1\"")
+                .add("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT")
+                .build());
+
+        Request conditional = cache.conditionalRequest(request);
+        assertEquals("\"v1\"", conditional.header("If-None-Match"));
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", conditional.header("If-Modified-Since"));
+    }
+
+    @Test
+    public void entriesWithoutValidatorsAreRequestedUnchanged() throws IOException {
+        Request request = request(60);
+        cache.put(request, "body", "body".getBytes(), new Headers.Builder().add("Date", "Wed, 21 Oct 2015 07:28:00 GMT").build());
+        assertSame(request, cache.conditionalRequest(request));
+    }
+
+    @Test
+    public void refreshExtendsTheTtlAndKeepsBodyAndValidators() throws Exception {
+        cache.put(request(0), "body", "body".getBytes(), new Headers.Builder().add("ETag", "\"v1\"").build());
+        Thread.sleep(5);
+        assertNull(cache.get(request(60)));
+        assertFalse(cache.isFresh(request(60)));
+
+        assertTrue(cache.refresh(request(60)));
+        assertTrue(cache.isFresh(request(60)));
+        assertEquals("body", cache.get(request(60)).string());
+        assertEquals("\"v1\"", cache.conditionalRequest(request(60)).header("If-None-Match"));
+    }
+
+    @Test
+    public void refreshWithoutAnEntryFails() {
+        assertFalse(cache.refresh(request(60)));
+    }
+
+    @Test
+    public void parsedObjectsAreCopiedAndDroppedWhenTheEntryChanges() throws IOException {
+        EasyHttpCache cache = parsedObjectCache(10);
+        CountingParser parser = new CountingParser();
+        cache.put(request(60), "v1", "v1".getBytes());
+        StringBuilder first = cache.getParsed(request(60), StringBuilder.class, parser);
+        first.append("!");
+        assertEquals("v1", cache.getParsed(request(60), StringBuilder.class, parser).toString());
+        assertEquals(1, parser.count);
+
+        cache.put(request(60), "v2", "v2".getBytes());
+        assertEquals("v2", cache.getParsed(request(60), StringBuilder.class, parser).toString());
+        assertEquals(2, parser.count);
+    }
+
+    @Test
+    public void unregisteredTypesAreParsedEveryTime() throws IOException {
+        EasyHttpCache cache = parsedObjectCache(10);
+        CountingParser parser = new CountingParser();
+        cache.put(request(60), "v1", "v1".getBytes());
+        cache.getParsed(request(60), CharSequence.class, parser);
+        cache.getParsed(request(60), CharSequence.class, parser);
+        assertEquals(2, parser.count);
+    }
+
+    @Test
+    public void evictedEntriesDropTheirParsedObjects() throws Exception {
+        File dir = temporaryFolder.newFolder("evicting");
+        EasyHttpCache cache = TestContext.cacheBuilder(dir)
+                .setParsedObjectCacheSize(10)
+                .registerParsedType(StringBuilder.class, STRING_BUILDER_COPIER)
+                .setMaxEntries(1)
+                .build();
+        Request first = request(60);
+        cache.put(first, "v1", "v1".getBytes());
+        cache.getParsed(first, StringBuilder.class, new CountingParser());
+        String key = cache.keyFor(first);
+        assertNotNull(cache.getParsedObjectCache().get(key, StringBuilder.class));
+
+        // 超过条数后在后台删除最早的缓存
+        cache.put(new Request.Builder().url(URL + "?page=2").header("Cache-Duration", "60").build(), "v2", "v2".getBytes());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getParsedObjectCache().get(key, StringBuilder.class) != null) {
+            assertTrue("parsed object outlived its entry", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertNull(cache.get(first));
+    }
+
+    @Test
+    public void compressedPutsReadBackTheOriginalBytes() throws IOException {
+        EasyHttpCache cache = compressingCache();
+        String body = repeat("{\"name\":\"value\"},", 200);
+        cache.put(request(60), body, body.getBytes());
+        Cache.Entry entry = cache.getEntry(request(60));
+        assertTrue(entry.compressed);
+        assertTrue(entry.data.length < body.length());
+        assertEquals(body, cache.get(request(60)).string());
+        assertEquals(EasyHttpCache.checksum(body.getBytes()), EasyHttpCache.checksum(entry));
+    }
+
+    @Test
+    public void smallAndIncompressibleBodiesAreStoredRaw() throws IOException {
+        EasyHttpCache cache = compressingCache();
+        cache.put(request(60), "small", "small".getBytes());
+        assertFalse(cache.getEntry(request(60)).compressed);
+        byte[] random = new byte[4096];
+        new Random(0).nextBytes(random);
+        Request other = new Request.Builder().url(URL + "?random").header("Cache-Duration", "60").build();
+        cache.put(other, "random", random);
+        assertFalse(cache.getEntry(other).compressed);
+        assertArrayEquals(random, cache.get(other).bytes());
+    }
+
+    @Test
+    public void compressedEditsReadBackTheOriginalBytes() throws IOException {
+        EasyHttpCache cache = compressingCache();
+        String body = repeat("{\"name\":\"value\"},", 200);
+        EasyHttpCache.Editor editor = cache.edit(request(60), MediaType.parse("application/json"), null);
+        ResponseBody tee = editor.tee(ResponseBody.create(MediaType.parse("application/json"), body));
+        assertEquals(body, tee.string());
+        editor.commit();
+
+        Cache.Entry entry = cache.getEntry(request(60));
+        assertTrue(entry.compressed);
+        assertTrue(entry.data.length < body.length());
+        assertEquals(body, cache.get(request(60)).string());
+        // 重新打开后从文件读取
+        EasyHttpCache reopened = TestContext.cacheBuilder(compressedDir).build();
+        assertEquals(body, reopened.get(request(60)).string());
+    }
+
+    private File compressedDir;
+
+    private EasyHttpCache compressingCache() throws IOException {
+        compressedDir = temporaryFolder.newFolder("compressed");
+        return TestContext.cacheBuilder(compressedDir)
+                .setCompress(true)
+                .setCompressThreshold(64)
+                .build();
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void theKeyOfARequestIsComputedOnce() throws IOException {
+        final int[] count = new int[1];
+        final DefaultCacheKeyStrategy strategy = new DefaultCacheKeyStrategy();
+        EasyHttpCache cache = TestContext.cacheBuilder(temporaryFolder.newFolder("keys"))
+                .setCacheKeyStrategy(new CacheKeyStrategy() {
+                    @Override
+                    public String keyFor(Request request) {
+                        count[0]++;
+                        return strategy.keyFor(request);
+                    }
+                }).build();
+        Request request = request(60);
+        cache.put(request, "body", "body".getBytes());
+        cache.conditionalRequest(request);
+        cache.isFresh(request);
+        assertEquals("body", cache.get(request).string());
+        assertEquals(1, count[0]);
+        // 新的Request重新计算
+        cache.get(request(60));
+        assertEquals(2, count[0]);
+    }
+
+    @Test
+    public void uncacheableRequestsAreRememberedToo() throws IOException {
+        final int[] count = new int[1];
+        EasyHttpCache cache = TestContext.cacheBuilder(temporaryFolder.newFolder("uncacheable"))
+                .setCacheKeyStrategy(new CacheKeyStrategy() {
+                    @Override
+                    public String keyFor(Request request) {
+                        count[0]++;
+                        return null;
+                    }
+                }).build();
+        Request request = request(60);
+        assertNull(cache.keyFor(request));
+        assertNull(cache.get(request));
+        assertEquals(1, count[0]);
+    }
+
+    @Test
+    public void metricsCountHitsMissesExpiryAndBytes() throws Exception {
+        CountingCacheMetrics metrics = new CountingCacheMetrics();
+        EasyHttpCache cache = TestContext.cacheBuilder(temporaryFolder.newFolder("metrics"))
+                .setMetrics(metrics)
+                .build();
+        cache.get(request(60));
+        cache.put(request(60), "body", "body".getBytes());
+        cache.get(request(60));
+        Request expiring = new Request.Builder().url(URL + "?expiring").header("Cache-Duration", "0").build();
+        cache.put(expiring, "old", "old".getBytes());
+        Thread.sleep(5);
+        cache.get(expiring);
+
+        CountingCacheMetrics.Stats http = metrics.getStats(CacheMetrics.HTTP);
+        assertEquals(1, http.getHitCount());
+        assertEquals(2, http.getMissCount());
+        assertEquals(1, http.getHardExpirationCount());
+        assertEquals(3, http.getGetLatency().getTotalCount());
+        assertEquals(2, http.getPutLatency().getTotalCount());
+
+        CountingCacheMetrics.Stats disk = metrics.getStats(CacheMetrics.DISK);
+        assertEquals("body".length() + "old".length(), disk.getBytesWritten());
+        assertEquals("body".length() + "old".length(), disk.getBytesRead());
+    }
+
+    @Test
+    public void invalidateTagRemovesTheTaggedEntries() throws IOException {
+        Request orders = new Request.Builder().url(URL + "?orders").header("Cache-Duration", "60")
+                .header(EasyHttpCache.HEADER_CACHE_TAG, "orders").build();
+        Request tagged = new Request.Builder().url(URL + "?tagged").header("Cache-Duration", "60").build();
+        cache.put(orders, "1", "1".getBytes());
+        cache.put(tagged, "2", "2".getBytes());
+        cache.put(request(60), "3", "3".getBytes());
+        assertTrue(cache.tag(tagged, "orders"));
+
+        assertEquals(2, cache.invalidateTag("orders"));
+        assertNull(cache.get(orders));
+        assertNull(cache.get(tagged));
+        assertEquals("3", cache.get(request(60)).string());
+        assertEquals(0, cache.invalidateTag("orders"));
+    }
+
+    private EasyHttpCache parsedObjectCache(int size) throws IOException {
+        return TestContext.cacheBuilder(temporaryFolder.newFolder("parsed"))
+                .setParsedObjectCacheSize(size)
+                .registerParsedType(StringBuilder.class, STRING_BUILDER_COPIER)
+                .build();
+    }
+
+    private static final ParsedObjectCache.Copier<StringBuilder> STRING_BUILDER_COPIER = new ParsedObjectCache.Copier<StringBuilder>() {
+        @Override
+        public StringBuilder copy(StringBuilder object) {
+            return new StringBuilder(object);
+        }
+    };
+
+    private static class CountingParser implements EasyHttpCache.Parser<StringBuilder> {
+        int count;
+
+        @Override
+        public StringBuilder parse(ResponseBody responseBody) throws IOException {
+            count++;
+            return new StringBuilder(responseBody.string());
+        }
+    }
+
+    /**
+     * @param cacheSeconds 缓存时长，key只由url决定
+     */
+    static Request request(int cacheSeconds) {
+        return new Request.Builder().url(URL).header("Cache-Duration", String.valueOf(cacheSeconds)).build();
+    }
+}
@@ -0,0 +1,114 @@
+package cc.easyandroid.easycache;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParsedObjectCacheTest {
+    private static final Type LIST = ArrayList.class;
+    private static final Type STRING = String.class;
+    private static final long TTL = Long.MAX_VALUE;
+
+    private static final ParsedObjectCache.Copier<ArrayList<String>> LIST_COPIER = new ParsedObjectCache.Copier<ArrayList<String>>() {
+        @Override
+        public ArrayList<String> copy(ArrayList<String> object) {
+            return new ArrayList<>(object);
+        }
+    };
+
+    private ParsedObjectCache newCache(int maxEntries) {
+        Map<Type, ParsedObjectCache.Copier<?>> copiers = new HashMap<>();
+        copiers.put(LIST, LIST_COPIER);
+        copiers.put(STRING, ParsedObjectCache.IMMUTABLE);
+        return new ParsedObjectCache(maxEntries, copiers);
+    }
+
+    @Test
+    public void callersCannotChangeTheCachedObject() {
+        ParsedObjectCache cache = newCache(10);
+        ArrayList<String> parsed = new ArrayList<>();
+        parsed.add("a");
+        cache.put("key", LIST, parsed, TTL, cache.generation());
+        // 保存之后修改解析的对象
+        parsed.add("b");
+
+        @SuppressWarnings("unchecked")
+        List<String> first = (List<String>) cache.get("key", LIST);
+        assertEquals(1, first.size());
+        first.add("c");
+        @SuppressWarnings("unchecked")
+        List<String> second = (List<String>) cache.get("key", LIST);
+        assertEquals(1, second.size());
+        assertNotSame(first, second);
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void immutableTypesAreShared() {
+        ParsedObjectCache cache = newCache(10);
+        String value = new String("value");
+        cache.put("key", STRING, value, TTL, cache.generation());
+        assertSame(value, cache.get("key", STRING));
+    }
+
+    @Test
+    public void unregisteredTypesAreNotCached() {
+        ParsedObjectCache cache = newCache(10);
+        assertTrue(cache.accepts(LIST));
+        assertFalse(cache.accepts(Object.class));
+        cache.put("key", Object.class, new Object(), TTL, cache.generation());
+        assertNull(cache.get("key", Object.class));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void writesDuringParsingAreNotStored() {
+        ParsedObjectCache cache = newCache(10);
+        long generation = cache.generation();
+        cache.remove("key");
+        cache.put("key", STRING, "old", TTL, generation);
+        assertNull(cache.get("key", STRING));
+    }
+
+    @Test
+    public void removeAndClearDropTheObjects() {
+        ParsedObjectCache cache = newCache(10);
+        cache.put("a", STRING, "1", TTL, cache.generation());
+        cache.put("b", STRING, "2", TTL, cache.generation());
+        cache.remove("a");
+        assertNull(cache.get("a", STRING));
+        assertEquals("2", cache.get("b", STRING));
+        cache.clear();
+        assertNull(cache.get("b", STRING));
+    }
+
+    @Test
+    public void expiredObjectsAreNotReturned() {
+        ParsedObjectCache cache = newCache(10);
+        cache.put("key", STRING, "value", System.currentTimeMillis() - 1, cache.generation());
+        assertNull(cache.get("key", STRING));
+    }
+
+    @Test
+    public void leastRecentlyUsedKeysAreEvicted() {
+        ParsedObjectCache cache = newCache(2);
+        cache.put("a", STRING, "1", TTL, cache.generation());
+        cache.put("b", STRING, "2", TTL, cache.generation());
+        cache.get("a", STRING);
+        cache.put("c", STRING, "3", TTL, cache.generation());
+        assertNull(cache.get("b", STRING));
+        assertEquals("1", cache.get("a", STRING));
+        assertEquals("3", cache.get("c", STRING));
+    }
+}
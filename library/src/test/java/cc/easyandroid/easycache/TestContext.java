@@ -0,0 +1,40 @@
+package cc.easyandroid.easycache;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.io.File;
+
+/**
+ * 缓存目录指向测试目录的Context，单元测试中android.jar的方法只返回默认值
+ */
+public class TestContext extends ContextWrapper {
+    private final File cacheDir;
+
+    public TestContext(File cacheDir) {
+        super(null);
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * 同步初始化的EasyHttpCache，缓存保存在cacheDir/volleycache
+     */
+    public static EasyHttpCache.Builder cacheBuilder(File cacheDir) {
+        return new EasyHttpCache.Builder(new TestContext(cacheDir));
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    @Override
+    public File getExternalCacheDir() {
+        return cacheDir;
+    }
+}
@@ -0,0 +1,63 @@
+package cc.easyandroid.easycache.dislrucache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Times many small commits under each {@link DiskLruCache.Durability}, with and without
+ * group commit, the way EasyCacheUtils writes its values and expiry times.
+ * <p>
+ * Not a unit test, run its main method on a JVM:
+ * {@code DiskLruCacheBenchmark [writes]}.
+ */
+public class DiskLruCacheBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int writes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    for (int round = 0; round < 2; round++) {
+      // the first round warms up the JIT and the file system.
+      for (DiskLruCache.Durability durability : DiskLruCache.Durability.values()) {
+        for (boolean groupCommit : new boolean[] {false, true}) {
+          if (durability == DiskLruCache.Durability.SYNC && writes > 1000) {
+            // every commit syncs twice, a smaller run gives the same rate.
+            report(round, durability, groupCommit, 1000, run(durability, groupCommit, 1000));
+          } else {
+            report(round, durability, groupCommit, writes, run(durability, groupCommit, writes));
+          }
+        }
+      }
+    }
+  }
+
+  private static void report(int round, DiskLruCache.Durability durability, boolean groupCommit, int writes, long nanos) {
+    if (round > 0) {
+      System.out.printf("%-6s group=%-5b %6d writes  %8.1f us/write%n",
+          durability, groupCommit, writes, nanos / 1e3 / writes);
+    }
+  }
+
+  private static long run(DiskLruCache.Durability durability, boolean groupCommit, int writes) throws IOException {
+    File directory = File.createTempFile("disklrucache", "");
+    if (!directory.delete() || !directory.mkdir()) {
+      throw new IOException("can't create " + directory);
+    }
+    DiskLruCache cache = DiskLruCache.open(directory, 1, 2, Long.MAX_VALUE);
+    try {
+      cache.setDurability(durability);
+      if (groupCommit) {
+        cache.setGroupCommit(10, 256);
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < writes; i++) {
+        DiskLruCache.Editor editor = cache.edit("key" + (i % 500));
+        editor.set(0, "{\"id\":" + i + ",\"name\":\"value\"}");
+        editor.set(1, String.valueOf(Long.MAX_VALUE));
+        editor.commit();
+      }
+      cache.flush();
+      return System.nanoTime() - start;
+    } finally {
+      cache.delete();
+    }
+  }
+}
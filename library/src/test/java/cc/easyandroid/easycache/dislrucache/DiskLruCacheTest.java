@@ -0,0 +1,218 @@
+package cc.easyandroid.easycache.dislrucache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DiskLruCacheTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+  private DiskLruCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temporaryFolder.newFolder("cache");
+    cache = DiskLruCache.open(directory, 1, 2, Integer.MAX_VALUE);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    cache.close();
+  }
+
+  @Test
+  public void commitReturnsOnceTheCleanLineIsFlushed() throws IOException {
+    assertEquals(DiskLruCache.Durability.FLUSH, cache.getDurability());
+    // a delay the commit must not wait for.
+    cache.setGroupCommit(60 * 1000, 1000);
+    long start = System.currentTimeMillis();
+    set("k1", "a", "b");
+    assertTrue(System.currentTimeMillis() - start < 30 * 1000);
+    assertTrue(readJournal().contains("DIRTY k1"));
+    assertTrue(readJournal().contains("CLEAN k1"));
+  }
+
+  @Test
+  public void snapshotsNeverMixTwoCommits() throws Exception {
+    set("k", "0", "0");
+    final AtomicBoolean running = new AtomicBoolean(true);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> writer = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (int i = 1; running.get(); i++) {
+            set("k", String.valueOf(i), String.valueOf(i));
+          }
+          return null;
+        }
+      });
+      long deadline = System.currentTimeMillis() + 500;
+      int reads = 0;
+      while (System.currentTimeMillis() < deadline) {
+        DiskLruCache.Snapshot snapshot = cache.get("k");
+        assertNotNull(snapshot);
+        try {
+          assertEquals(snapshot.getString(0), snapshot.getString(1));
+          assertEquals(snapshot.getLength(0), snapshot.getLength(1));
+        } finally {
+          snapshot.close();
+        }
+        reads++;
+      }
+      running.set(false);
+      writer.get();
+      assertTrue(reads > 0);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void groupCommitHoldsCleanLinesWithoutDurability() throws IOException {
+    cache.setDurability(DiskLruCache.Durability.NONE);
+    cache.setGroupCommit(60 * 1000, 1000);
+    set("k1", "a", "b");
+    assertFalse(readJournal().contains("CLEAN k1"));
+
+    cache.flush();
+    assertTrue(readJournal().contains("CLEAN k1"));
+  }
+
+  @Test
+  public void groupCommitFlushesOnceEnoughLinesArePending() throws Exception {
+    cache.setDurability(DiskLruCache.Durability.NONE);
+    cache.setGroupCommit(60 * 1000, 4);
+    // two DIRTY and two CLEAN lines.
+    set("k1", "a", "b");
+    set("k2", "a", "b");
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!readJournal().contains("CLEAN k2")) {
+      assertTrue(System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void groupCommitSurvivesReopen() throws IOException {
+    cache.setDurability(DiskLruCache.Durability.NONE);
+    cache.setGroupCommit(60 * 1000, 1000);
+    for (int i = 0; i < 20; i++) {
+      set("k" + i, "value" + i, "0");
+    }
+    cache.close();
+
+    cache = DiskLruCache.open(directory, 1, 2, Integer.MAX_VALUE);
+    for (int i = 0; i < 20; i++) {
+      DiskLruCache.Snapshot snapshot = cache.get("k" + i);
+      assertNotNull(snapshot);
+      assertEquals("value" + i, snapshot.getString(0));
+      snapshot.close();
+    }
+  }
+
+  @Test
+  public void durabilityModesKeepEntries() throws IOException {
+    for (DiskLruCache.Durability durability : DiskLruCache.Durability.values()) {
+      cache.setDurability(durability);
+      set("k", durability.name(), "0");
+      DiskLruCache.Snapshot snapshot = cache.get("k");
+      assertEquals(durability.name(), snapshot.getString(0));
+      snapshot.close();
+    }
+    cache.close();
+    cache = DiskLruCache.open(directory, 1, 2, Integer.MAX_VALUE);
+    DiskLruCache.Snapshot snapshot = cache.get("k");
+    assertEquals("SYNC", snapshot.getString(0));
+    snapshot.close();
+  }
+
+  @Test
+  public void peekStringReadsOneValue() throws IOException {
+    set("k", "data", "123");
+    assertEquals("123", cache.peekString("k", 1));
+    assertNull(cache.peekString("missing", 1));
+  }
+
+  @Test
+  public void singleValueSnapshotOpensOnlyThatValue() throws IOException {
+    set("k", "data", "123");
+    DiskLruCache.Snapshot snapshot = cache.get("k", 0);
+    assertEquals("data", snapshot.getString(0));
+    assertNull(snapshot.getInputStream(1));
+    snapshot.close();
+    try {
+      cache.get("k", 2);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void removeIfUnchangedSkipsRewrittenEntries() throws IOException {
+    set("k", "old", "0");
+    DiskLruCache.Snapshot stale = cache.get("k");
+    stale.close();
+    set("k", "new", "0");
+    assertFalse(cache.removeIfUnchanged(stale));
+    assertEquals("new", cache.peekString("k", 0));
+
+    DiskLruCache.Snapshot current = cache.get("k");
+    current.close();
+    assertTrue(cache.removeIfUnchanged(current));
+    assertNull(cache.get("k"));
+  }
+
+  @Test
+  public void keysListsReadableEntries() throws IOException {
+    set("a", "1", "0");
+    set("b", "2", "0");
+    assertEquals(2, cache.keys().size());
+    assertTrue(cache.keys().contains("a"));
+    cache.remove("a");
+    assertFalse(cache.keys().contains("a"));
+  }
+
+  void set(String key, String value0, String value1) throws IOException {
+    DiskLruCache.Editor editor = cache.edit(key);
+    editor.set(0, value0);
+    editor.set(1, value1);
+    editor.commit();
+  }
+
+  String readJournal() throws IOException {
+    InputStream in = new FileInputStream(new File(directory, DiskLruCache.JOURNAL_FILE));
+    try {
+      StringBuilder result = new StringBuilder();
+      byte[] buffer = new byte[1024];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        result.append(new String(buffer, 0, count, "US-ASCII"));
+      }
+      return result.toString();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package cc.easyandroid.easycache.serializer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BinarySerializerTest {
+    private final BinarySerializer<Object> serializer = BinarySerializer.get();
+
+    @Test
+    public void roundTrip() throws IOException {
+        List<Object> value = Arrays.<Object>asList(null, true, false, (byte) 1, (short) -2, 'c', -3, Long.MIN_VALUE,
+                1.5f, 2.5d, "字符串", Arrays.<Object>asList(1, "nested"));
+        assertEquals(value, read(write(value)));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) read(write(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void largeBytesRoundTrip() throws IOException {
+        byte[] value = new byte[100 * 1024];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) i;
+        }
+        assertArrayEquals(value, (byte[]) read(write(value)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedTypeFails() throws IOException {
+        write(new Object());
+    }
+
+    @Test
+    public void hugeLengthsFailWithoutAllocating() throws IOException {
+        byte[] maxLength = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07};// Integer.MAX_VALUE
+        assertTruncated(withLength(write(new byte[0])[0], maxLength));
+        assertTruncated(withLength(write(new ArrayList<Object>())[0], maxLength));
+    }
+
+    @Test
+    public void truncatedInputFails() throws IOException {
+        byte[] bytes = write(Arrays.<Object>asList("one", "two", "three"));
+        assertTruncated(Arrays.copyOf(bytes, bytes.length - 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownTagFails() throws IOException {
+        read(new byte[]{(byte) 0x7f});
+    }
+
+    private static byte[] withLength(byte tag, byte[] length) {
+        byte[] bytes = new byte[length.length + 1];
+        bytes[0] = tag;
+        System.arraycopy(length, 0, bytes, 1, length.length);
+        return bytes;
+    }
+
+    private void assertTruncated(byte[] bytes) throws IOException {
+        try {
+            read(bytes);
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+
+    private byte[] write(Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(value, out);
+        return out.toByteArray();
+    }
+
+    private Object read(byte[] bytes) throws IOException {
+        return serializer.read(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,88 @@
+package cc.easyandroid.easycache.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 比较{@link BinarySerializer}和原来EasyCacheUtils用的ObjectOutputStream，写入读取一个列表的耗时和大小。
+ * <p>
+ * 不是单元测试，在JVM上运行main方法：{@code SerializerBenchmark [items] [iterations]}
+ */
+public class SerializerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        List<Object> value = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            List<Object> item = new ArrayList<>();
+            item.add(i);
+            item.add("house " + i);
+            item.add(i * 1.5d);
+            item.add(System.currentTimeMillis());
+            item.add(i % 2 == 0);
+            value.add(item);
+        }
+        CacheSerializer<Object> binary = BinarySerializer.get();
+        CacheSerializer<Object> java = new ObjectStreamSerializer();
+        for (int round = 0; round < 3; round++) {
+            // 前两轮预热JIT
+            for (CacheSerializer<Object> serializer : Arrays.asList(binary, java)) {
+                long[] result = run(serializer, value, iterations);
+                if (round == 2) {
+                    System.out.printf("%-22s write %7.1f us  read %7.1f us  %,7d bytes%n",
+                            serializer.getClass().getSimpleName(), result[0] / 1e3, result[1] / 1e3, result[2]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 每次写入、读取的纳秒数和序列化后的字节数
+     */
+    private static long[] run(CacheSerializer<Object> serializer, Object value, int iterations) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long writeTime = 0;
+        long readTime = 0;
+        for (int i = 0; i < iterations; i++) {
+            out.reset();
+            long start = System.nanoTime();
+            serializer.write(value, out);
+            writeTime += System.nanoTime() - start;
+            byte[] bytes = out.toByteArray();
+            start = System.nanoTime();
+            Object read = serializer.read(new ByteArrayInputStream(bytes));
+            readTime += System.nanoTime() - start;
+            if (!value.equals(read)) {
+                throw new IllegalStateException("round trip failed");
+            }
+        }
+        return new long[]{writeTime / iterations, readTime / iterations, out.size()};
+    }
+
+    private static final class ObjectStreamSerializer implements CacheSerializer<Object> {
+        @Override
+        public void write(Object value, OutputStream out) throws IOException {
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(value);
+            oos.flush();
+        }
+
+        @Override
+        public Object read(InputStream in) throws IOException {
+            try {
+                return new ObjectInputStream(in).readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package cc.easyandroid.easycache.volleycache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares reads of different keys under the original global lock with the striped
+ * concurrent mode, while one thread keeps rewriting a large entry.
+ * <p>
+ * Not a unit test, run its main method on a JVM:
+ * {@code DiskBasedCacheBenchmark [readers] [seconds]}.
+ */
+public class DiskBasedCacheBenchmark {
+	private static final int KEYS = 64;
+	private static final int SMALL_ENTRY = 16 * 1024;
+	private static final int LARGE_ENTRY = 2 * 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		int readers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		for (int round = 0; round < 2; round++) {
+			// the first round warms up the JIT and the page cache.
+			for (boolean concurrent : new boolean[] {false, true}) {
+				double[] result = run(concurrent, readers, seconds);
+				if (round > 0) {
+					System.out.printf("%-10s readers=%d  reads/s=%,.0f  writes/s=%,.1f%n",
+							concurrent ? "striped" : "global", readers, result[0], result[1]);
+				}
+			}
+		}
+	}
+
+	private static double[] run(boolean concurrent, int readers, int seconds) throws Exception {
+		File root = createTempDirectory();
+		try {
+			final DiskBasedCache cache = new DiskBasedCache(root, 64 * 1024 * 1024, concurrent);
+			cache.initialize();
+			for (int i = 0; i < KEYS; i++) {
+				cache.put("key" + i, entry(SMALL_ENTRY));
+			}
+			final Cache.Entry large = entry(LARGE_ENTRY);
+			final AtomicBoolean running = new AtomicBoolean(true);
+			final AtomicLong reads = new AtomicLong();
+			final AtomicLong writes = new AtomicLong();
+			final CountDownLatch done = new CountDownLatch(readers + 1);
+			for (int t = 0; t < readers; t++) {
+				final int offset = t;
+				new Thread(new Runnable() {
+					@Override
+					public void run() {
+						long count = 0;
+						for (int i = offset; running.get(); i++) {
+							if (cache.get("key" + (i % KEYS)) != null) {
+								count++;
+							}
+						}
+						reads.addAndGet(count);
+						done.countDown();
+					}
+				}).start();
+			}
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running.get()) {
+						cache.put("large", large);
+						writes.incrementAndGet();
+					}
+					done.countDown();
+				}
+			}).start();
+			Thread.sleep(seconds * 1000L);
+			running.set(false);
+			done.await();
+			return new double[] {reads.get() / (double) seconds, writes.get() / (double) seconds};
+		} finally {
+			delete(root);
+		}
+	}
+
+	private static Cache.Entry entry(int size) {
+		Cache.Entry entry = new Cache.Entry();
+		entry.data = new byte[size];
+		entry.ttl = Long.MAX_VALUE;
+		entry.softTtl = Long.MAX_VALUE;
+		return entry;
+	}
+
+	static File createTempDirectory() throws IOException {
+		File dir = File.createTempFile("easycache", "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("can't create " + dir);
+		}
+		return dir;
+	}
+
+	static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,105 @@
+package cc.easyandroid.easycache.volleycache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/**
+ * Times {@link DiskBasedCache#initialize()} from the index against the directory scan it
+ * falls back to, for a growing number of entries.
+ * <p>
+ * Not a unit test, run its main method on a JVM:
+ * {@code DiskBasedCacheStartupBenchmark [entries...]}.
+ */
+public class DiskBasedCacheStartupBenchmark {
+	private static final int ENTRY_SIZE = 2 * 1024;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int[] counts = {500, 2000, 8000};
+		if (args.length > 0) {
+			counts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				counts[i] = Integer.parseInt(args[i]);
+			}
+		}
+		// warm up the JIT on a small directory first.
+		run(200);
+		for (int count : counts) {
+			long[] result = run(count);
+			System.out.printf("entries=%-6d index=%6.1f ms  scan=%6.1f ms%n", count, result[0] / 1e6, result[1] / 1e6);
+		}
+	}
+
+	/**
+	 * @return The median nanoseconds to initialize from the index and by scanning.
+	 */
+	private static long[] run(int count) throws Exception {
+		File root = DiskBasedCacheBenchmark.createTempDirectory();
+		try {
+			DiskBasedCache cache = new DiskBasedCache(root, Integer.MAX_VALUE, true);
+			cache.initialize();
+			Cache.Entry entry = new Cache.Entry();
+			entry.data = new byte[ENTRY_SIZE];
+			entry.mimeType = "application/json; charset=UTF-8";
+			entry.ttl = Long.MAX_VALUE;
+			entry.softTtl = Long.MAX_VALUE;
+			for (int i = 0; i < count; i++) {
+				cache.put("http://example.com/api/list?page=" + i, entry);
+			}
+			DiskBasedCacheTest.drain(cache);
+			File index = new File(root, DiskBasedCache.INDEX_FILE);
+			File saved = new File(root.getParentFile(), root.getName() + ".index");
+			if (!index.renameTo(saved)) {
+				throw new IllegalStateException("no index written");
+			}
+			long[] indexTimes = new long[RUNS];
+			long[] scanTimes = new long[RUNS];
+			for (int run = 0; run < RUNS; run++) {
+				scanTimes[run] = initialize(root, count);
+				// the scan queued an index rewrite, put the one written by the cache back.
+				copy(saved, index);
+				indexTimes[run] = initialize(root, count);
+				index.delete();
+			}
+			saved.delete();
+			return new long[] {median(indexTimes), median(scanTimes)};
+		} finally {
+			DiskBasedCacheBenchmark.delete(root);
+		}
+	}
+
+	private static long initialize(File root, int count) throws Exception {
+		DiskBasedCache cache = new DiskBasedCache(root, Integer.MAX_VALUE, true);
+		long start = System.nanoTime();
+		cache.initialize();
+		long time = System.nanoTime() - start;
+		DiskBasedCacheTest.drain(cache);
+		if (cache.getMetadata("http://example.com/api/list?page=" + (count - 1)) == null) {
+			throw new IllegalStateException("entries not loaded");
+		}
+		return time;
+	}
+
+	private static void copy(File from, File to) throws Exception {
+		FileInputStream in = new FileInputStream(from);
+		FileOutputStream out = new FileOutputStream(to);
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+}
@@ -0,0 +1,470 @@
+package cc.easyandroid.easycache.volleycache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cc.easyandroid.easycache.CacheMetrics;
+import cc.easyandroid.easycache.CountingCacheMetrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskBasedCacheTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File mRoot;
+	private DiskBasedCache mCache;
+
+	@Before
+	public void setUp() throws IOException {
+		mRoot = temporaryFolder.newFolder("cache");
+		mCache = newCache();
+	}
+
+	private DiskBasedCache newCache() {
+		DiskBasedCache cache = new DiskBasedCache(mRoot, 1024 * 1024, true);
+		cache.initialize();
+		return cache;
+	}
+
+	@Test
+	public void putThenGet() {
+		mCache.put("key", entry("data"));
+		Cache.Entry entry = mCache.get("key");
+		assertNotNull(entry);
+		assertArrayEquals("data".getBytes(), entry.data);
+		assertEquals("etag", entry.mimeType);
+		assertNull(mCache.get("missing"));
+	}
+
+	@Test
+	public void writesLeaveNoTempFiles() throws Exception {
+		mCache.put("key", entry("first"));
+		mCache.put("key", entry("second"));
+		DiskBasedCache.Editor aborted = mCache.edit("key", entry(""));
+		aborted.newOutputStream().write("never visible".getBytes());
+		aborted.abort();
+		drain(mCache);
+		for (String name : mRoot.list()) {
+			assertFalse(name, name.endsWith(DiskBasedCache.TEMP_SUFFIX));
+		}
+		assertArrayEquals("second".getBytes(), mCache.get("key").data);
+	}
+
+	@Test
+	public void editorPublishesOnlyOnCommit() throws Exception {
+		mCache.put("key", entry("old"));
+		DiskBasedCache.Editor editor = mCache.edit("key", entry(""));
+		OutputStream out = editor.newOutputStream();
+		out.write("new".getBytes());
+		assertArrayEquals("old".getBytes(), mCache.get("key").data);
+		assertTrue(editor.commit());
+		assertArrayEquals("new".getBytes(), mCache.get("key").data);
+		assertArrayEquals("new".getBytes(), newCache().get("key").data);
+	}
+
+	@Test
+	public void corruptDataFailsCrcAndIsRemoved() throws IOException {
+		mCache.put("key", entry("some data"));
+		File file = mCache.getFileForKey("key");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(raf.length() - 1);
+			raf.write('X');
+		} finally {
+			raf.close();
+		}
+		assertNull(mCache.get("key"));
+		assertNull(mCache.getMetadata("key"));
+		assertFalse(file.exists());
+		assertEquals(0, mCache.getCacheSize());
+	}
+
+	@Test
+	public void tempFilesOfACrashedWriteAreDeletedOnStartup() throws Exception {
+		mCache.put("key", entry("data"));
+		drain(mCache);
+		File orphan = new File(mRoot, mCache.getFileForKey("key").getName() + ".1" + DiskBasedCache.TEMP_SUFFIX);
+		writeFully(orphan, "half written".getBytes());
+		assertTrue(new File(mRoot, DiskBasedCache.INDEX_FILE).delete());
+
+		DiskBasedCache reloaded = newCache();
+		assertFalse(orphan.exists());
+		assertArrayEquals("data".getBytes(), reloaded.get("key").data);
+	}
+
+	@Test
+	public void concurrentReadersAndWritersSeeTheirOwnKeys() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 8; t++) {
+				final String key = "key" + t;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = 0; i < 200; i++) {
+							mCache.put(key, entry(key + i));
+							assertArrayEquals((key + i).getBytes(), mCache.get(key).data);
+							// a shared key is written and read by every thread.
+							mCache.put("shared", entry("shared"));
+							assertArrayEquals("shared".getBytes(), mCache.get("shared").data);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		long expectedSize = 0;
+		for (int t = 0; t < 8; t++) {
+			expectedSize += mCache.getFileForKey("key" + t).length();
+		}
+		expectedSize += mCache.getFileForKey("shared").length();
+		assertEquals(expectedSize, mCache.getCacheSize());
+	}
+
+	@Test
+	public void globalLockModeBehavesTheSame() {
+		DiskBasedCache cache = new DiskBasedCache(mRoot, 1024 * 1024, false);
+		cache.initialize();
+		cache.put("key", entry("data"));
+		assertArrayEquals("data".getBytes(), cache.get("key").data);
+		cache.remove("key");
+		assertNull(cache.get("key"));
+		assertEquals(0, cache.getCacheSize());
+	}
+
+	@Test
+	public void reloadsFromIndex() throws Exception {
+		mCache.put("a", entry("1"));
+		mCache.put("b", entry("2"));
+		drain(mCache);
+		assertTrue(new File(mRoot, DiskBasedCache.INDEX_FILE).exists());
+
+		DiskBasedCache reloaded = newCache();
+		assertArrayEquals("1".getBytes(), reloaded.get("a").data);
+		assertArrayEquals("2".getBytes(), reloaded.get("b").data);
+		assertEquals(mCache.getCacheSize(), reloaded.getCacheSize());
+	}
+
+	@Test
+	public void reloadsByScanWithoutIndex() throws Exception {
+		mCache.put("a", entry("1"));
+		drain(mCache);
+		assertTrue(new File(mRoot, DiskBasedCache.INDEX_FILE).delete());
+
+		DiskBasedCache reloaded = newCache();
+		assertArrayEquals("1".getBytes(), reloaded.get("a").data);
+		drain(reloaded);
+		assertTrue(new File(mRoot, DiskBasedCache.INDEX_FILE).exists());
+	}
+
+	@Test
+	public void corruptIndexFallsBackToScan() throws Exception {
+		mCache.put("a", entry("1"));
+		drain(mCache);
+		RandomAccessFile raf = new RandomAccessFile(new File(mRoot, DiskBasedCache.INDEX_FILE), "rw");
+		try {
+			raf.seek(8);
+			raf.write(0xff);
+		} finally {
+			raf.close();
+		}
+
+		DiskBasedCache reloaded = newCache();
+		assertArrayEquals("1".getBytes(), reloaded.get("a").data);
+	}
+
+	@Test
+	public void filesTheIndexMissesAreScannedAndRemovedOnesDropped() throws Exception {
+		mCache.put("a", entry("1"));
+		mCache.put("b", entry("2"));
+		drain(mCache);
+		// written and deleted behind the index, e.g. the process died before the next write.
+		File index = new File(mRoot, DiskBasedCache.INDEX_FILE);
+		byte[] stale = readFully(index);
+		mCache.put("c", entry("3"));
+		mCache.remove("a");
+		drain(mCache);
+		writeFully(index, stale);
+
+		DiskBasedCache reloaded = newCache();
+		assertNull(reloaded.getMetadata("a"));
+		assertArrayEquals("2".getBytes(), reloaded.get("b").data);
+		assertArrayEquals("3".getBytes(), reloaded.get("c").data);
+		assertEquals(mCache.getCacheSize(), reloaded.getCacheSize());
+	}
+
+	@Test
+	public void refreshUpdatesTtlsInPlace() throws Exception {
+		mCache.put("key", entry("data"));
+		assertTrue(mCache.refresh("key", 1234L, 5678L));
+		assertFalse(mCache.refresh("missing", 1L, 1L));
+		drain(mCache);
+
+		Cache.Entry entry = newCache().get("key");
+		assertEquals(1234L, entry.softTtl);
+		assertEquals(5678L, entry.ttl);
+		assertArrayEquals("data".getBytes(), entry.data);
+	}
+
+	@Test
+	public void pruneEvictsLeastRecentlyUsedAndReportsRemovals() throws Exception {
+		final List<String> removed = new ArrayList<String>();
+		mCache.setRemovalListener(new DiskBasedCache.RemovalListener() {
+			@Override
+			public void onRemoved(String key) {
+				synchronized (removed) {
+					removed.add(key);
+				}
+			}
+		});
+		mCache.setMaxEntries(10);
+		for (int i = 0; i < 10; i++) {
+			mCache.put("key" + i, entry("data" + i));
+		}
+		mCache.get("key0");
+		mCache.put("key10", entry("data10"));
+		drain(mCache);
+		// down to 90% of the budget, the least recently used first.
+		assertEquals(Arrays.asList("key1", "key2"), removed);
+		assertNotNull(mCache.getMetadata("key0"));
+		assertNotNull(mCache.getMetadata("key10"));
+	}
+
+	@Test
+	public void expiredEntriesArePrunedFirst() throws Exception {
+		mCache.setMaxEntries(10);
+		Cache.Entry expired = entry("expired");
+		expired.ttl = 0;
+		mCache.put("expired", expired);
+		for (int i = 0; i < 9; i++) {
+			mCache.put("key" + i, entry("data" + i));
+		}
+		mCache.get("expired");
+		mCache.put("key9", entry("data9"));
+		drain(mCache);
+		assertNull(mCache.getMetadata("expired"));
+		assertNull(mCache.getMetadata("key0"));
+		assertNotNull(mCache.getMetadata("key1"));
+	}
+
+	@Test
+	public void pruneKeepsTheByteBudget() throws Exception {
+		mCache.put("key00", entry("data"));
+		long entrySize = mCache.getCacheSize();
+		mCache.setMaxCacheSize(entrySize * 10);
+		for (int i = 1; i < 20; i++) {
+			mCache.put(String.format("key%02d", i), entry("data"));
+		}
+		drain(mCache);
+		assertTrue(mCache.getCacheSize() < entrySize * 10);
+		assertNull(mCache.getMetadata("key00"));
+		assertNotNull(mCache.getMetadata("key19"));
+		long onDisk = 0;
+		for (File file : mRoot.listFiles()) {
+			if (!file.getName().equals(DiskBasedCache.INDEX_FILE)) {
+				onDisk += file.length();
+			}
+		}
+		assertEquals(mCache.getCacheSize(), onDisk);
+	}
+
+	@Test
+	public void filesInAnOlderFormatAreDeletedOnScan() throws Exception {
+		mCache.put("key", entry("data"));
+		drain(mCache);
+		File file = mCache.getFileForKey("key");
+		writeOldMagic(file);
+		assertTrue(new File(mRoot, DiskBasedCache.INDEX_FILE).delete());
+
+		DiskBasedCache reloaded = newCache();
+		assertNull(reloaded.getMetadata("key"));
+		assertNull(reloaded.get("key"));
+		assertFalse(file.exists());
+		assertEquals(0, reloaded.getCacheSize());
+	}
+
+	@Test
+	public void getAllAndPutAll() throws Exception {
+		Map<String, Cache.Entry> entries = new HashMap<String, Cache.Entry>();
+		for (int i = 0; i < 20; i++) {
+			entries.put("key" + i, entry("data" + i));
+		}
+		mCache.putAll(entries);
+		Map<String, Cache.Entry> result = mCache.getAll(Arrays.asList("key3", "key17", "missing"));
+		assertEquals(2, result.size());
+		assertArrayEquals("data3".getBytes(), result.get("key3").data);
+		assertArrayEquals("data17".getBytes(), result.get("key17").data);
+
+		drain(mCache);
+		assertEquals(20, newCache().getAll(entries.keySet()).size());
+	}
+
+	@Test
+	public void getAllSkipsAndRemovesBrokenFiles() throws Exception {
+		mCache.put("good", entry("data"));
+		mCache.put("bad", entry("data"));
+		File file = mCache.getFileForKey("bad");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(raf.length() - 1);
+			raf.write('X');
+		} finally {
+			raf.close();
+		}
+		Map<String, Cache.Entry> result = mCache.getAll(Arrays.asList("good", "bad"));
+		assertEquals(1, result.size());
+		assertNotNull(result.get("good"));
+		assertNull(mCache.getMetadata("bad"));
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void swappingTheHasherRenamesTheFiles() throws Exception {
+		mCache.put("a", entry("1"));
+		mCache.put("b", entry("2"));
+		drain(mCache);
+		File oldFile = mCache.getFileForKey("a");
+
+		// with the index, the files it can't find under their new names are scanned.
+		DiskBasedCache md5 = new DiskBasedCache(mRoot, 1024 * 1024, true, new Md5KeyHasher());
+		md5.initialize();
+		assertFalse(oldFile.exists());
+		assertTrue(md5.getFileForKey("a").exists());
+		assertArrayEquals("1".getBytes(), md5.get("a").data);
+		assertArrayEquals("2".getBytes(), md5.get("b").data);
+		drain(md5);
+
+		// and back again, this time without an index.
+		assertTrue(new File(mRoot, DiskBasedCache.INDEX_FILE).delete());
+		DiskBasedCache murmur = newCache();
+		assertTrue(oldFile.exists());
+		assertArrayEquals("1".getBytes(), murmur.get("a").data);
+		assertEquals(md5.getCacheSize(), murmur.getCacheSize());
+	}
+
+	@Test
+	public void recordsLatencyForHitsAndMisses() {
+		CountingCacheMetrics metrics = new CountingCacheMetrics();
+		mCache.setMetrics(metrics);
+		mCache.put("key", entry("data"));
+		mCache.get("key");
+		mCache.get("missing");
+		CountingCacheMetrics.Stats stats = metrics.getStats(CacheMetrics.DISK);
+		assertEquals(1, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(2, stats.getGetLatency().getTotalCount());
+		assertEquals(4, stats.getBytesRead());
+		assertEquals(4, stats.getBytesWritten());
+	}
+
+	@Test
+	public void recordsEvictions() throws Exception {
+		CountingCacheMetrics metrics = new CountingCacheMetrics();
+		mCache.setMetrics(metrics);
+		mCache.setMaxEntries(10);
+		for (int i = 0; i < 11; i++) {
+			mCache.put("key" + i, entry("data"));
+		}
+		drain(mCache);
+		CountingCacheMetrics.Stats stats = metrics.getStats(CacheMetrics.DISK);
+		assertEquals(2, stats.getEvictionCount());
+		assertTrue(stats.getEvictedBytes() > 8);
+	}
+
+	@Test
+	public void removeReportsToListener() {
+		final List<String> removed = new ArrayList<String>();
+		mCache.setRemovalListener(new DiskBasedCache.RemovalListener() {
+			@Override
+			public void onRemoved(String key) {
+				removed.add(key);
+			}
+		});
+		mCache.put("key", entry("data"));
+		mCache.remove("key");
+		mCache.remove("missing");
+		assertEquals(Arrays.asList("key"), removed);
+	}
+
+	/**
+	 * Stamps the magic of the format before compression and checksums were added.
+	 */
+	private static void writeOldMagic(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.write(new byte[] {0x04, 0x05, 0x12, 0x20});
+		} finally {
+			raf.close();
+		}
+	}
+
+	static Cache.Entry entry(String data) {
+		Cache.Entry entry = new Cache.Entry();
+		entry.data = data.getBytes();
+		entry.mimeType = "etag";
+		entry.ttl = Long.MAX_VALUE;
+		entry.softTtl = Long.MAX_VALUE;
+		return entry;
+	}
+
+	/**
+	 * Waits for the queued index writes and prunes, the executor has a single thread.
+	 */
+	static void drain(DiskBasedCache cache) throws Exception {
+		cache.executorService.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				return null;
+			}
+		}).get();
+	}
+
+	private static byte[] readFully(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[(int) raf.length()];
+			raf.readFully(bytes);
+			return bytes;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void writeFully(File file, byte[] bytes) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.write(bytes);
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package cc.easyandroid.easycache.volleycache;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the time and the bytes allocated per call of each {@link KeyHasher}, on keys
+ * shaped like the request URLs the cache sees.
+ * <p>
+ * Not a unit test, run its main method on a HotSpot JVM, which reports the allocations:
+ * {@code KeyHasherBenchmark [calls]}.
+ */
+public class KeyHasherBenchmark {
+	private static final String[] KEYS = new String[64];
+
+	static {
+		for (int i = 0; i < KEYS.length; i++) {
+			KEYS[i] = "http://example.com/api/v2/houses/list?city=shanghai&page=" + i + "&size=20&sort=price";
+		}
+	}
+
+	public static void main(String[] args) {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		KeyHasher[] hashers = {new Md5KeyHasher(), new Murmur3KeyHasher()};
+		for (int round = 0; round < 3; round++) {
+			// the first rounds warm up the JIT.
+			for (KeyHasher hasher : hashers) {
+				double[] result = run(hasher, calls);
+				if (round == 2) {
+					System.out.printf("%-18s %6.0f ns/call  %5.0f bytes/call%n",
+							hasher.getClass().getSimpleName(), result[0], result[1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The nanoseconds and the bytes allocated per call.
+	 */
+	private static double[] run(KeyHasher hasher, int calls) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		int sink = 0;
+		long bytes = threads.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			sink += hasher.hash(KEYS[i & (KEYS.length - 1)]).length();
+		}
+		long time = System.nanoTime() - start;
+		bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+		if (sink != calls * 32) {
+			throw new IllegalStateException("unexpected hash length");
+		}
+		return new double[] {time / (double) calls, bytes / (double) calls};
+	}
+}
@@ -0,0 +1,44 @@
+package cc.easyandroid.easycache.volleycache;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class KeyHasherTest {
+	@Test
+	public void murmur3MatchesReferenceVectors() {
+		KeyHasher hasher = new Murmur3KeyHasher();
+		assertEquals("00000000000000000000000000000000", hasher.hash(""));
+		assertEquals("cbd8a7b341bd9b025b1e906a48ae1d19", hasher.hash("hello"));
+		// longer than one 16 byte block.
+		assertEquals("aa22ebbff8e52cbc73c1da4fd665b98c", hasher.hash("http://example.com/api/list?page=1&size=20"));
+		// multi-byte and surrogate pair characters are hashed as UTF-8.
+		assertEquals("31cbcd15a8ebcb2e10f2532a85dde921", hasher.hash("缓存key😀"));
+	}
+
+	@Test
+	public void murmur3DistinguishesKeys() {
+		KeyHasher hasher = new Murmur3KeyHasher();
+		assertNotEquals(hasher.hash("key1"), hasher.hash("key2"));
+		assertEquals(hasher.hash("key1"), hasher.hash("key1"));
+	}
+
+	@Test
+	public void md5MatchesLegacyNaming() throws Exception {
+		String key = "http://example.com/api/list?page=1";
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		digest.update(key.getBytes());
+		StringBuilder expected = new StringBuilder();
+		for (byte b : digest.digest()) {
+			String hex = Integer.toHexString(0xff & b);
+			if (hex.length() == 1) {
+				expected.append('0');
+			}
+			expected.append(hex);
+		}
+		assertEquals(expected.toString(), new Md5KeyHasher().hash(key));
+	}
+}
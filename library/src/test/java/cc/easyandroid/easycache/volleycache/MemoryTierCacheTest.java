@@ -0,0 +1,290 @@
+package cc.easyandroid.easycache.volleycache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryTierCacheTest {
+	private static final int MAX_SIZE = 1024;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private DiskBasedCache mDisk;
+	private MapMemory mMemory;
+	private MemoryTierCache mCache;
+
+	@Before
+	public void setUp() throws IOException {
+		mDisk = new DiskBasedCache(temporaryFolder.newFolder("cache"));
+		mMemory = new MapMemory(MAX_SIZE);
+		mCache = new MemoryTierCache(mDisk, MAX_SIZE, mMemory);
+		mCache.initialize();
+	}
+
+	@Test
+	public void writesGoThroughAndReadsAreServedFromMemory() {
+		mCache.put("key", entry("data"));
+		assertArrayEquals("data".getBytes(), mDisk.get("key").data);
+		Cache.Entry first = mCache.get("key");
+		assertSame(first, mCache.get("key"));
+		assertEquals(2, mCache.getHitCount());
+		assertEquals(0, mCache.getMissCount());
+		assertEquals(4, mCache.getMemorySize());
+	}
+
+	@Test
+	public void missesPopulateTheMemory() {
+		mDisk.put("key", entry("data"));
+		assertArrayEquals("data".getBytes(), mCache.get("key").data);
+		assertEquals(1, mCache.getMissCount());
+		assertNotNull(mMemory.get("key"));
+		mCache.get("key");
+		assertEquals(1, mCache.getHitCount());
+	}
+
+	@Test
+	public void writesBehindTheTierAreShadowedUntilEvicted() {
+		mCache.put("key", entry("old"));
+		mDisk.put("key", entry("new"));
+		assertArrayEquals("old".getBytes(), mCache.get("key").data);
+		mCache.evict("key");
+		assertArrayEquals("new".getBytes(), mCache.get("key").data);
+	}
+
+	@Test
+	public void largeEntriesStayOnDisk() {
+		mCache.put("small", entry("data"));
+		mCache.put("large", entry(new String(new char[MAX_SIZE / 4 + 1])));
+		assertNull(mMemory.get("large"));
+		assertNotNull(mCache.get("large"));
+		assertNull(mMemory.get("large"));
+		assertNotNull(mMemory.get("small"));
+	}
+
+	@Test
+	public void memoryIsBoundedByBytesInLruOrder() {
+		String data = new String(new char[MAX_SIZE / 4]);
+		for (int i = 0; i < 4; i++) {
+			mCache.put("key" + i, entry(data));
+		}
+		// touch key0 so key1 is the least recently used one.
+		mCache.get("key0");
+		mCache.put("key4", entry(data));
+		assertTrue(mCache.getMemorySize() <= MAX_SIZE);
+		assertNull(mMemory.get("key1"));
+		assertNotNull(mMemory.get("key0"));
+		assertArrayEquals(data.getBytes(), mCache.get("key1").data);
+	}
+
+	@Test
+	public void aReadRacingAWriteDoesNotKeepTheOldData() {
+		final Cache.Entry large = entry(new String(new char[MAX_SIZE / 4 + 1]));
+		// the write lands while the read of the old entry is in flight.
+		BatchCache racing = new ForwardingCache(mDisk) {
+			@Override
+			public Cache.Entry get(String key) {
+				Cache.Entry old = super.get(key);
+				mCache.put(key, large);
+				return old;
+			}
+		};
+		mCache = new MemoryTierCache(racing, MAX_SIZE, mMemory);
+		mDisk.put("key", entry("old"));
+		assertArrayEquals("old".getBytes(), mCache.get("key").data);
+		assertNull(mMemory.get("key"));
+	}
+
+	@Test
+	public void removeAndClearReachBothTiers() {
+		mCache.put("a", entry("1"));
+		mCache.put("b", entry("2"));
+		mCache.remove("a");
+		assertNull(mMemory.get("a"));
+		assertNull(mCache.get("a"));
+		assertNull(mDisk.get("a"));
+		mCache.clear();
+		assertEquals(0, mCache.getMemorySize());
+		assertNull(mCache.get("b"));
+		assertEquals(0, mDisk.getCacheSize());
+	}
+
+	@Test
+	public void refreshIsVisibleThroughMemory() {
+		mCache.put("key", entry("data"));
+		mCache.get("key");
+		assertTrue(mCache.refresh("key", 10L, 20L));
+		Cache.Entry entry = mCache.get("key");
+		assertEquals(10L, entry.softTtl);
+		assertEquals(20L, entry.ttl);
+	}
+
+	@Test
+	public void invalidateDropsTheMemoryCopy() {
+		mCache.put("key", entry("data"));
+		mCache.invalidate("key", true);
+		assertEquals(0L, mCache.get("key").ttl);
+	}
+
+	@Test
+	public void getAllMergesBothTiers() {
+		mCache.put("a", entry("1"));
+		mDisk.put("b", entry("2"));
+		Map<String, Cache.Entry> result = mCache.getAll(Arrays.asList("a", "b", "c"));
+		assertEquals(2, result.size());
+		assertArrayEquals("1".getBytes(), result.get("a").data);
+		assertArrayEquals("2".getBytes(), result.get("b").data);
+		assertEquals(1, mCache.getHitCount());
+		assertEquals(2, mCache.getMissCount());
+		assertNotNull(mMemory.get("b"));
+	}
+
+	@Test
+	public void putAllWritesThroughAndFillsTheMemory() {
+		Map<String, Cache.Entry> entries = new LinkedHashMap<String, Cache.Entry>();
+		entries.put("a", entry("1"));
+		entries.put("b", entry("2"));
+		mCache.putAll(entries);
+		assertArrayEquals("2".getBytes(), mDisk.get("b").data);
+		assertNotNull(mMemory.get("a"));
+		assertNotNull(mMemory.get("b"));
+	}
+
+	private static Cache.Entry entry(String data) {
+		Cache.Entry entry = new Cache.Entry();
+		entry.data = data.getBytes();
+		entry.ttl = Long.MAX_VALUE;
+		entry.softTtl = Long.MAX_VALUE;
+		return entry;
+	}
+
+	/**
+	 * A JVM stand-in for {@link android.util.LruCache}, which only returns default values in
+	 * unit tests.
+	 */
+	static final class MapMemory implements MemoryTierCache.Memory {
+		private final int mMaxSize;
+		private final LinkedHashMap<String, Cache.Entry> mMap = new LinkedHashMap<String, Cache.Entry>(16, .75f, true);
+		private int mSize;
+
+		MapMemory(int maxSize) {
+			mMaxSize = maxSize;
+		}
+
+		@Override
+		public synchronized Cache.Entry get(String key) {
+			return mMap.get(key);
+		}
+
+		@Override
+		public synchronized Cache.Entry put(String key, Cache.Entry entry) {
+			Cache.Entry previous = mMap.put(key, entry);
+			mSize += entry.data.length - (previous != null ? previous.data.length : 0);
+			Iterator<Cache.Entry> iterator = mMap.values().iterator();
+			while (mSize > mMaxSize && iterator.hasNext()) {
+				mSize -= iterator.next().data.length;
+				iterator.remove();
+			}
+			return previous;
+		}
+
+		@Override
+		public synchronized Cache.Entry remove(String key) {
+			Cache.Entry previous = mMap.remove(key);
+			if (previous != null) {
+				mSize -= previous.data.length;
+			}
+			return previous;
+		}
+
+		@Override
+		public synchronized void evictAll() {
+			mMap.clear();
+			mSize = 0;
+		}
+
+		@Override
+		public synchronized int size() {
+			return mSize;
+		}
+	}
+
+	/** Passes every call on to another cache. */
+	static class ForwardingCache implements BatchCache {
+		private final BatchCache mDelegate;
+
+		ForwardingCache(BatchCache delegate) {
+			mDelegate = delegate;
+		}
+
+		@Override
+		public Cache.Entry get(String key) {
+			return mDelegate.get(key);
+		}
+
+		@Override
+		public void put(String key, Cache.Entry entry) {
+			mDelegate.put(key, entry);
+		}
+
+		@Override
+		public Map<String, Cache.Entry> getAll(Collection<String> keys) {
+			return mDelegate.getAll(keys);
+		}
+
+		@Override
+		public void putAll(Map<String, Cache.Entry> entries) {
+			mDelegate.putAll(entries);
+		}
+
+		@Override
+		public Cache.Entry getMetadata(String key) {
+			return mDelegate.getMetadata(key);
+		}
+
+		@Override
+		public boolean refresh(String key, long softTtl, long ttl) {
+			return mDelegate.refresh(key, softTtl, ttl);
+		}
+
+		@Override
+		public void initialize() {
+			mDelegate.initialize();
+		}
+
+		@Override
+		public void invalidate(String key, boolean fullExpire) {
+			mDelegate.invalidate(key, fullExpire);
+		}
+
+		@Override
+		public void remove(String key) {
+			mDelegate.remove(key);
+		}
+
+		@Override
+		public void clear() {
+			mDelegate.clear();
+		}
+
+		@Override
+		public long getCacheSize() {
+			return mDelegate.getCacheSize();
+		}
+	}
+}
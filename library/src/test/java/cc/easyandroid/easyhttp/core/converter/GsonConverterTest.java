@@ -0,0 +1,108 @@
+package cc.easyandroid.easyhttp.core.converter;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.TestContext;
+import cc.easyandroid.easycore.EAResult;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class GsonConverterTest {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File cacheDir;
+    private EasyHttpCache cache;
+    private GsonConverter<Result> converter;
+    private final Request request = new Request.Builder().url("http://example.com/list").build();
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = temporaryFolder.newFolder("cache");
+        cache = TestContext.cacheBuilder(cacheDir).build();
+        converter = new GsonConverter<>(new Gson().getAdapter(Result.class), cache);
+    }
+
+    @Test
+    public void parsedBodyIsStreamedIntoTheCache() throws IOException {
+        String json = "{\"success\":true,\"data\":\"first\"}";
+        Result result = converter.fromBody(ResponseBody.create(JSON, json), request, true);
+        assertEquals("first", result.data);
+        assertEquals(json, cache.get(request).string());
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void parseFailureKeepsTheCachedEntry() throws IOException {
+        String json = "{\"success\":true,\"data\":\"first\"}";
+        converter.fromBody(ResponseBody.create(JSON, json), request, true);
+        try {
+            converter.fromBody(ResponseBody.create(JSON, "{\"success\":true,\"data\":[1,"), request, true);
+            fail();
+        } catch (IOException | RuntimeException expected) {
+        }
+        assertEquals(json, cache.get(request).string());
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void resultsThatCanNotBeSavedAreNotCached() throws IOException {
+        Result result = converter.fromBody(ResponseBody.create(JSON, "{\"success\":false,\"data\":\"error\"}"), request, true);
+        assertFalse(result.isSuccess());
+        assertNull(cache.get(request));
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void cachedBodiesAreNotWrittenBack() throws IOException {
+        converter.fromBody(ResponseBody.create(JSON, "{\"success\":true,\"data\":\"cached\"}"), request, false);
+        assertNull(cache.get(request));
+    }
+
+    /**
+     * 放弃的写入不留下临时文件，索引的临时文件由后台线程写入，不检查
+     */
+    private void assertNoTempFiles() {
+        String[] names = new File(cacheDir, "volleycache").list();
+        for (String name : names) {
+            assertFalse(name, name.endsWith(".tmp") && !name.startsWith("easycache.index"));
+        }
+    }
+
+    static class Result implements EAResult {
+        boolean success;
+        String data;
+
+        @Override
+        public boolean isSuccess() {
+            return success;
+        }
+
+        @Override
+        public String getEADesc() {
+            return data;
+        }
+
+        @Override
+        public String getEACode() {
+            return null;
+        }
+    }
+}
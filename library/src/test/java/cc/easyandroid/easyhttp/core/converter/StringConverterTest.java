@@ -0,0 +1,88 @@
+package cc.easyandroid.easyhttp.core.converter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.TestContext;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class StringConverterTest {
+    private static final MediaType TEXT = MediaType.parse("text/plain; charset=UTF-8");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private EasyHttpCache cache;
+    private StringConverter converter;
+    private final Request request = new Request.Builder().url("http://example.com/text").build();
+
+    @Before
+    public void setUp() throws IOException {
+        cache = TestContext.cacheBuilder(temporaryFolder.newFolder("cache")).build();
+        converter = new StringConverter(cache);
+    }
+
+    @Test
+    public void bodyIsStreamedIntoTheCache() throws IOException {
+        assertEquals("hello", converter.fromBody(ResponseBody.create(TEXT, "hello"), request, true));
+        assertEquals("hello", cache.get(request).string());
+    }
+
+    @Test
+    public void brokenDownloadIsNotCached() throws IOException {
+        try {
+            converter.fromBody(failingBody("partial"), request, true);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertNull(cache.get(request));
+    }
+
+    /**
+     * 返回一部分数据后连接断开的body
+     */
+    private static ResponseBody failingBody(String prefix) {
+        Buffer buffer = new Buffer().writeUtf8(prefix);
+        final BufferedSource source = Okio.buffer(new ForwardingSource(buffer) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read == -1) {
+                    throw new IOException("connection reset");
+                }
+                return read;
+            }
+        });
+        return new ResponseBody() {
+            @Override
+            public MediaType contentType() {
+                return TEXT;
+            }
+
+            @Override
+            public long contentLength() {
+                return -1;
+            }
+
+            @Override
+            public BufferedSource source() {
+                return source;
+            }
+        };
+    }
+}
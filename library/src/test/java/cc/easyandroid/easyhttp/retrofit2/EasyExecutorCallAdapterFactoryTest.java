@@ -0,0 +1,178 @@
+package cc.easyandroid.easyhttp.retrofit2;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.TestContext;
+import cc.easyandroid.easycore.EAResult;
+import cc.easyandroid.easyhttp.core.CacheMode;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Converter;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 回调在主线程执行，单元测试中不会执行，通过发出的请求和缓存的内容检查结果
+ */
+public class EasyExecutorCallAdapterFactoryTest {
+    interface Api {
+        @GET("list")
+        @retrofit2.http.Headers("Cache-Duration: 60")
+        Call<Result> list();
+    }
+
+    /**
+     * 只有EAResult的结果才会缓存
+     */
+    static class Result implements EAResult {
+        final String data;
+
+        Result(String data) {
+            this.data = data;
+        }
+
+        @Override
+        public boolean isSuccess() {
+            return true;
+        }
+
+        @Override
+        public String getEADesc() {
+            return data;
+        }
+
+        @Override
+        public String getEACode() {
+            return null;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private EasyHttpCache cache;
+    private Api api;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<okhttp3.Response.Builder> responses = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        cache = TestContext.cacheBuilder(temporaryFolder.newFolder("cache")).build();
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new Interceptor() {
+            @Override
+            public okhttp3.Response intercept(Chain chain) throws IOException {
+                requests.add(chain.request());
+                okhttp3.Response.Builder response = responses.poll();
+                if (response == null) {
+                    throw new IOException("unexpected request");
+                }
+                return response.request(chain.request()).protocol(Protocol.HTTP_1_1).build();
+            }
+        }).build();
+        api = new Retrofit.Builder()
+                .baseUrl("http://example.com/")
+                .client(client)
+                .addConverterFactory(new Converter.Factory() {
+                    @Override
+                    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+                        return new Converter<ResponseBody, Result>() {
+                            @Override
+                            public Result convert(ResponseBody value) throws IOException {
+                                return new Result(value.string());
+                            }
+                        };
+                    }
+
+                    @Override
+                    public Converter<?, RequestBody> requestBodyConverter(Type type, Annotation[] parameterAnnotations, Annotation[] methodAnnotations, Retrofit retrofit) {
+                        return new Converter<Result, RequestBody>() {
+                            @Override
+                            public RequestBody convert(Result value) {
+                                return RequestBody.create(MediaType.parse("text/plain"), value.data);
+                            }
+                        };
+                    }
+                })
+                .addCallAdapterFactory(new EasyExecutorCallAdapterFactory(cache))
+                .build()
+                .create(Api.class);
+    }
+
+    @Test
+    public void notModifiedExtendsTheCachedEntry() throws Exception {
+        Request request = api.list().request();
+        cache.put(expired(request), "cached", "cached".getBytes(), new Headers.Builder().add("ETag", "\"v1\"").build());
+        Thread.sleep(5);
+        responses.add(new okhttp3.Response.Builder().code(304).body(ResponseBody.create(null, "")));
+
+        enqueue(api.list());
+        Request sent = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(sent);
+        assertEquals("\"v1\"", sent.header("If-None-Match"));
+        awaitFresh(request);
+        assertEquals("cached", cache.get(request).string());
+    }
+
+    @Test
+    public void changedContentReplacesTheEntry() throws Exception {
+        Request request = api.list().request();
+        cache.put(expired(request), "cached", "cached".getBytes(), new Headers.Builder().add("ETag", "\"v1\"").build());
+        Thread.sleep(5);
+        responses.add(new okhttp3.Response.Builder().code(200).header("ETag", "\"v2\"")
+                .body(ResponseBody.create(MediaType.parse("text/plain"), "changed")));
+
+        enqueue(api.list());
+        awaitFresh(request);
+        assertEquals("changed", cache.get(request).string());
+        assertEquals("\"v2\"", cache.conditionalRequest(request).header("If-None-Match"));
+    }
+
+    private static Request expired(Request request) {
+        return request.newBuilder().header("Cache-Duration", "0").build();
+    }
+
+    private static void enqueue(Call<Result> call) {
+        ((ICacheModeInject) call).setCacheMode(CacheMode.LOAD_CACHE_ELSE_NETWORK);
+        call.enqueue(new Callback<Result>() {
+            @Override
+            public void onResponse(Call<Result> call, Response<Result> response) {
+            }
+
+            @Override
+            public void onFailure(Call<Result> call, Throwable t) {
+            }
+        });
+    }
+
+    private void awaitFresh(Request request) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cache.isFresh(request) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(cache.isFresh(request));
+    }
+}
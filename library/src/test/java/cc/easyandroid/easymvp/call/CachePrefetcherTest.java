@@ -0,0 +1,224 @@
+package cc.easyandroid.easymvp.call;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.TestContext;
+import cc.easyandroid.easyutils.NetWorkManager;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachePrefetcherTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private EasyHttpCache cache;
+    private CachePrefetcher prefetcher;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Response.Builder> responses = new LinkedBlockingQueue<>();
+    /**
+     * 不为null时第一个请求等待这个latch
+     */
+    private volatile CountDownLatch blockFirst;
+    private volatile int netWorkType = NetWorkManager.netWorkType.TYPE_WIFI;
+
+    @Before
+    public void setUp() throws IOException {
+        TestContext context = new TestContext(temporaryFolder.newFolder("cache"));
+        cache = new EasyHttpCache.Builder(context).build();
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                boolean first = requests.isEmpty();
+                requests.add(chain.request());
+                CountDownLatch latch = blockFirst;
+                if (first && latch != null) {
+                    try {
+                        latch.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                Response.Builder response = responses.poll();
+                if (response == null) {
+                    response = ok("body");
+                }
+                return response.request(chain.request()).protocol(Protocol.HTTP_1_1).build();
+            }
+        }).build();
+        prefetcher = new CachePrefetcher(context, client, cache, new CachePrefetcher.NetworkState() {
+            @Override
+            public int getNetWorkType() {
+                return netWorkType;
+            }
+        });
+    }
+
+    @Test
+    public void missingEntriesAreDownloadedIntoTheCache() throws Exception {
+        prefetcher.prefetch(request("a", 60));
+        awaitIdle();
+        assertEquals(1, requests.size());
+        assertTrue(cache.isFresh(request("a", 60)));
+        assertEquals("body", cache.get(request("a", 60)).string());
+    }
+
+    @Test
+    public void freshEntriesDoNotTouchTheNetwork() throws Exception {
+        cache.put(request("a", 60), "cached", "cached".getBytes(), null);
+        prefetcher.prefetch(request("a", 60));
+        awaitIdle();
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void staleEntriesWithoutValidatorsDoNotTouchTheNetwork() throws Exception {
+        cache.put(request("a", 0), "cached", "cached".getBytes(), null);
+        Thread.sleep(5);
+        prefetcher.prefetch(request("a", 60));
+        awaitIdle();
+        assertTrue(requests.isEmpty());
+        assertTrue(cache.contains(request("a", 60)));
+        assertFalse(cache.isFresh(request("a", 60)));
+    }
+
+    @Test
+    public void notModifiedExtendsTheCachedEntry() throws Exception {
+        cache.put(request("a", 0), "cached", "cached".getBytes(), new Headers.Builder().add("ETag", "\"v1\"").build());
+        Thread.sleep(5);
+        responses.add(new Response.Builder().code(304).body(ResponseBody.create(null, "")));
+
+        prefetcher.prefetch(request("a", 60));
+        awaitIdle();
+        Request sent = requests.poll();
+        assertNotNull(sent);
+        assertEquals("\"v1\"", sent.header("If-None-Match"));
+        assertTrue(cache.isFresh(request("a", 60)));
+        assertEquals("cached", cache.get(request("a", 60)).string());
+    }
+
+    @Test
+    public void changedContentDoesNotOverwriteWithoutAConverter() throws Exception {
+        cache.put(request("a", 0), "cached", "cached".getBytes(), new Headers.Builder().add("ETag", "\"v1\"").build());
+        Thread.sleep(5);
+        responses.add(ok("changed"));
+
+        prefetcher.prefetch(request("a", 60));
+        awaitIdle();
+        assertEquals(1, requests.size());
+        assertFalse(cache.isFresh(request("a", 60)));
+        assertEquals("\"v1\"", cache.conditionalRequest(request("a", 60)).header("If-None-Match"));
+    }
+
+    @Test
+    public void higherPrioritiesAreFetchedFirst() throws Exception {
+        prefetcher.setMaxConcurrent(1);
+        blockFirst = new CountDownLatch(1);
+        prefetcher.prefetch(request("first", 60), CachePrefetcher.PRIORITY_LOW);
+        assertNotNull(awaitRequest());// 第一个请求占住唯一的位置，后面的排队
+        prefetcher.prefetch(request("low", 60), CachePrefetcher.PRIORITY_LOW);
+        prefetcher.prefetch(request("normal", 60), CachePrefetcher.PRIORITY_NORMAL);
+        prefetcher.prefetch(request("high", 60), CachePrefetcher.PRIORITY_HIGH);
+        blockFirst.countDown();
+        awaitIdle();
+
+        assertEquals("/high", requests.poll().url().encodedPath());
+        assertEquals("/normal", requests.poll().url().encodedPath());
+        assertEquals("/low", requests.poll().url().encodedPath());
+    }
+
+    @Test
+    public void samePendingRequestIsFetchedOnce() throws Exception {
+        prefetcher.setMaxConcurrent(1);
+        blockFirst = new CountDownLatch(1);
+        prefetcher.prefetch(request("first", 60));
+        assertNotNull(awaitRequest());
+        prefetcher.prefetch(request("a", 60));
+        prefetcher.prefetch(request("a", 60));
+        assertEquals(2, prefetcher.getPendingCount());
+        blockFirst.countDown();
+        awaitIdle();
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void mobileNetworksOnlyFetchHighPriorities() throws Exception {
+        netWorkType = NetWorkManager.netWorkType.TYPE_MOBILE;
+        prefetcher.prefetch(request("normal", 60), CachePrefetcher.PRIORITY_NORMAL);
+        prefetcher.prefetch(request("high", 60), CachePrefetcher.PRIORITY_HIGH);
+        awaitIdle();
+        assertEquals(1, requests.size());
+        assertEquals("/high", requests.poll().url().encodedPath());
+    }
+
+    @Test
+    public void nothingIsFetchedWithoutANetwork() throws Exception {
+        netWorkType = NetWorkManager.netWorkType.TYPE_NO_NETWORK;
+        prefetcher.prefetch(request("a", 60), CachePrefetcher.PRIORITY_HIGH);
+        assertEquals(0, prefetcher.getPendingCount());
+        Thread.sleep(50);
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void cancelAllDropsQueuedRequests() throws Exception {
+        prefetcher.setMaxConcurrent(1);
+        blockFirst = new CountDownLatch(1);
+        prefetcher.prefetch(request("first", 60));
+        assertNotNull(awaitRequest());
+        prefetcher.prefetch(request("a", 60));
+        prefetcher.prefetch(request("b", 60));
+        prefetcher.cancelAll();
+        assertEquals(1, prefetcher.getPendingCount());
+        blockFirst.countDown();
+        awaitIdle();
+        assertTrue(requests.isEmpty());
+        assertNull(cache.get(request("a", 60)));
+    }
+
+    private Request awaitRequest() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requests.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        return requests.poll();
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (prefetcher.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, prefetcher.getPendingCount());
+    }
+
+    private static Response.Builder ok(String body) {
+        return new Response.Builder().code(200).body(ResponseBody.create(MediaType.parse("text/plain"), body));
+    }
+
+    private static Request request(String path, int cacheSeconds) {
+        return new Request.Builder().url("http://example.com/" + path)
+                .header("Cache-Duration", String.valueOf(cacheSeconds)).build();
+    }
+}
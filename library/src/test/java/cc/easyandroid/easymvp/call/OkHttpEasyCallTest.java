@@ -0,0 +1,121 @@
+package cc.easyandroid.easymvp.call;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import cc.easyandroid.easycache.EasyHttpCache;
+import cc.easyandroid.easycache.TestContext;
+import cc.easyandroid.easycore.EasyHttpStateCallback;
+import cc.easyandroid.easycore.EasyResponse;
+import cc.easyandroid.easyhttp.core.CacheMode;
+import cc.easyandroid.easyhttp.core.converter.StringConverter;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 回调在主线程执行，单元测试中不会执行，通过发出的请求和缓存的内容检查结果
+ */
+public class OkHttpEasyCallTest {
+    private static final String URL = "http://example.com/list";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private EasyHttpCache cache;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Response.Builder> responses = new LinkedBlockingQueue<>();
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = TestContext.cacheBuilder(temporaryFolder.newFolder("cache")).build();
+        client = new OkHttpClient.Builder().addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                requests.add(chain.request());
+                Response.Builder response = responses.poll();
+                if (response == null) {
+                    throw new IOException("unexpected request");
+                }
+                return response.request(chain.request()).protocol(Protocol.HTTP_1_1).build();
+            }
+        }).build();
+    }
+
+    @Test
+    public void notModifiedExtendsTheCachedEntry() throws Exception {
+        cache.put(request(0), "cached", "cached".getBytes(), new Headers.Builder().add("ETag", "\"v1\"").build());
+        Thread.sleep(5);
+        responses.add(new Response.Builder().code(304).body(ResponseBody.create(null, "")));
+
+        enqueue(request(60));
+        Request sent = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(sent);
+        assertEquals("\"v1\"", sent.header("If-None-Match"));
+        awaitFresh(request(60));
+        assertEquals("cached", cache.get(request(60)).string());
+    }
+
+    @Test
+    public void changedContentReplacesTheEntryAndItsValidators() throws Exception {
+        cache.put(request(0), "cached", "cached".getBytes(), new Headers.Builder().add("ETag", "\"v1\"").build());
+        Thread.sleep(5);
+        responses.add(new Response.Builder().code(200).header("ETag", "\"v2\"")
+                .body(ResponseBody.create(MediaType.parse("text/plain"), "changed")));
+
+        enqueue(request(60));
+        awaitFresh(request(60));
+        assertEquals("changed", cache.get(request(60)).string());
+        assertEquals("\"v2\"", cache.conditionalRequest(request(60)).header("If-None-Match"));
+    }
+
+    @Test
+    public void freshEntriesDoNotTouchTheNetwork() throws Exception {
+        cache.put(request(60), "cached", "cached".getBytes(), null);
+        enqueue(request(60));
+        assertNull(requests.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private void enqueue(Request request) {
+        new OkHttpEasyCall<>(client, new StringConverter(cache), request, cache)
+                .enqueue(new EasyHttpStateCallback<String>() {
+                    @Override
+                    public void onResponse(EasyResponse<String> easyResponse) {
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                    }
+                }, CacheMode.LOAD_CACHE_ELSE_NETWORK);
+    }
+
+    private void awaitFresh(Request request) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cache.isFresh(request) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(cache.isFresh(request));
+    }
+
+    private static Request request(int cacheSeconds) {
+        return new Request.Builder().url(URL).header("Cache-Duration", String.valueOf(cacheSeconds)).build();
+    }
+}
@@ -0,0 +1,97 @@
+package cc.easyandroid.easymvp.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cc.easyandroid.easycore.EasyHttpStateCallback;
+import cc.easyandroid.easycore.EasyResponse;
+import okhttp3.Request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RequestCoalescerTest {
+    private final RequestCoalescer coalescer = new RequestCoalescer();
+
+    @Test
+    public void onlyGetRequestsWithATypeAreCoalesced() {
+        Request get = new Request.Builder().url("http://example.com/list").build();
+        Request post = new Request.Builder().url("http://example.com/list")
+                .post(okhttp3.RequestBody.create(null, new byte[0])).build();
+        assertNull(coalescer.keyFor(post, null, String.class, false));
+        assertNull(coalescer.keyFor(get, null, null, false));
+        assertEquals(coalescer.keyFor(get, null, String.class, false), coalescer.keyFor(get, null, String.class, false));
+        assertNotEquals(coalescer.keyFor(get, null, String.class, false), coalescer.keyFor(get, null, String.class, true));
+        assertNotEquals(coalescer.keyFor(get, null, String.class, false), coalescer.keyFor(get, null, Integer.class, false));
+    }
+
+    @Test
+    public void sameKeyJoinsOneFlightAndOnlyTheFirstStarts() {
+        RequestCoalescer.Flight<String> first = coalescer.join("key", new RecordingCallback());
+        RequestCoalescer.Flight<String> second = coalescer.join("key", new RecordingCallback());
+        assertSame(first, second);
+        assertEquals(1, coalescer.getInFlightCount());
+        assertTrue(first.claimStart());
+        assertFalse(second.claimStart());
+    }
+
+    @Test
+    public void flightEndsWhenTheLastCallerLeaves() {
+        RecordingCallback a = new RecordingCallback();
+        RecordingCallback b = new RecordingCallback();
+        RequestCoalescer.Flight<String> flight = coalescer.join("key", a);
+        coalescer.join("key", b);
+
+        flight.leave(a);
+        flight.leave(a);// leaving twice must not count as b leaving
+        assertEquals(1, coalescer.getInFlightCount());
+        flight.leave(b);
+        assertEquals(0, coalescer.getInFlightCount());
+
+        flight.onResponse(null);
+        assertEquals(0, a.responses + b.responses);
+    }
+
+    @Test
+    public void resultReachesEveryRemainingCallerOnce() {
+        RecordingCallback a = new RecordingCallback();
+        RecordingCallback b = new RecordingCallback();
+        RecordingCallback left = new RecordingCallback();
+        RequestCoalescer.Flight<String> flight = coalescer.join("key", a);
+        coalescer.join("key", b);
+        coalescer.join("key", left);
+        flight.leave(left);
+
+        flight.onResponse(null);
+        flight.onFailure(new Exception());
+        assertEquals(1, a.responses);
+        assertEquals(1, b.responses);
+        assertEquals(0, left.responses);
+        assertEquals(0, a.failures.size());
+        assertEquals(0, coalescer.getInFlightCount());
+
+        assertNotSame(flight, coalescer.join("key", new RecordingCallback()));
+    }
+
+    private static final class RecordingCallback implements EasyHttpStateCallback<String> {
+        int responses;
+        final List<Throwable> failures = new ArrayList<>();
+
+        @Override
+        public void onResponse(EasyResponse<String> easyResponse) {
+            responses++;
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+            failures.add(t);
+        }
+    }
+}